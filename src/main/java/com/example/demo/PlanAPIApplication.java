@@ -1,37 +1,52 @@
 package com.example.demo;
 
-import java.io.InputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import org.everit.json.schema.Schema;
-import org.everit.json.schema.ValidationException;
-import org.everit.json.schema.loader.SchemaLoader;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import jakarta.servlet.http.HttpServletRequest;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import com.example.demo.model.DataResponse;
 import com.example.demo.model.ErrorResponse;
-import com.example.demo.model.PlanDocument;
+import com.example.demo.model.PlanFilter;
+import com.example.demo.model.PlanSearchResponse;
 import com.example.demo.service.ElasticsearchService;
-import com.example.demo.service.RabbitMQProducerService;
+import com.example.demo.service.PlanBulkIngestService;
+import com.example.demo.service.PlanCacheService;
+import com.example.demo.service.PlanExportService;
+import com.example.demo.service.PlanFilterQueries;
+import com.example.demo.service.PlanReindexService;
+import com.example.demo.service.PlanStatsService;
+import com.example.demo.service.PlanSearchCacheService;
+import com.example.demo.service.PlanBody;
+import com.example.demo.service.PlanStorageService;
+import com.example.demo.service.PlanTrees;
+import com.example.demo.service.PlanValidationException;
+import com.example.demo.service.PlanValidator;
+import com.example.demo.service.StoredPlan;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 @SpringBootApplication
 public class PlanAPIApplication {
@@ -41,64 +56,114 @@ public class PlanAPIApplication {
 	}
 }
 
+// Thread-per-request plan API; ReactivePlanController serves the same endpoints when the
+// application runs with spring.main.web-application-type=reactive
 @RestController
 @RequestMapping("/api/v1/plans")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 class PlanController {
 
-	private Schema planSchema;
-	private final RedisTemplate<String, String> redisTemplate;
 	private final ElasticsearchService elasticsearchService;
-	private final RabbitMQProducerService rabbitMQProducerService;
+	private final PlanStorageService planStorageService;
+	private final PlanCacheService planCacheService;
+	private final PlanValidator planValidator;
+	private final ObjectMapper objectMapper;
+	// Every write is a compare-and-set against the version read before it. Writes that are not
+	// bound to a client's If-Match re-read and re-apply on a conflict, at most this many times.
+	private final int maxWriteAttempts;
+	private final ExecutorService fanOutExecutor;
+	private final PlanBulkIngestService planBulkIngestService;
+	private final PlanExportService planExportService;
+	private final PlanSearchCacheService planSearchCacheService;
+	private final PlanReindexService planReindexService;
+	private final PlanStatsService planStatsService;
 
 	@Autowired
 	public PlanController(
-			RedisTemplate<String, String> redisTemplate,
 			ElasticsearchService elasticsearchService,
-			RabbitMQProducerService rabbitMQProducerService) {
-		this.redisTemplate = redisTemplate;
+			PlanStorageService planStorageService,
+			PlanCacheService planCacheService,
+			PlanValidator planValidator,
+			ObjectMapper objectMapper,
+			@Value("${plan.write.max-attempts:5}") int maxWriteAttempts,
+			ExecutorService fanOutExecutor,
+			PlanBulkIngestService planBulkIngestService,
+			PlanExportService planExportService,
+			PlanSearchCacheService planSearchCacheService,
+			PlanReindexService planReindexService,
+			PlanStatsService planStatsService) {
 		this.elasticsearchService = elasticsearchService;
-		this.rabbitMQProducerService = rabbitMQProducerService;
-		try (InputStream schemaStream = getClass().getResourceAsStream("/plan-schema.json")) {
-			if (schemaStream == null) {
-				throw new RuntimeException("Schema file not found");
-			}
-			JSONObject rawSchema = new JSONObject(new JSONTokener(schemaStream));
-			planSchema = SchemaLoader.load(rawSchema);
-		} catch (Exception e) {
-			throw new RuntimeException("Failed to load JSON Schema", e);
+		this.planStorageService = planStorageService;
+		this.planCacheService = planCacheService;
+		this.planValidator = planValidator;
+		this.objectMapper = objectMapper;
+		this.maxWriteAttempts = Math.max(1, maxWriteAttempts);
+		this.fanOutExecutor = fanOutExecutor;
+		this.planBulkIngestService = planBulkIngestService;
+		this.planExportService = planExportService;
+		this.planSearchCacheService = planSearchCacheService;
+		this.planReindexService = planReindexService;
+		this.planStatsService = planStatsService;
+	}
+
+	// Returned when a write kept losing to concurrent writes to the same plan
+	private ResponseEntity<?> conflict() {
+		return ResponseEntity.status(HttpStatus.CONFLICT)
+				.body(new ErrorResponse("Plan was modified concurrently, please retry", "CONFLICT"));
+	}
+
+	// Helper method to parse a request body, once, straight from its bytes. The resulting tree
+	// is used for validation and storage, and is serialized a single time per write.
+	private ObjectNode readPlan(byte[] body) throws IOException {
+		JsonNode node = objectMapper.readTree(body);
+		if (node == null || !node.isObject()) {
+			throw new IllegalArgumentException("Request body must be a JSON object");
 		}
+		return (ObjectNode) node;
 	}
 
 	// POST /api/v1/plans - Create a new plan
 	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<?> createPlan(
-			@RequestBody String planJson,
+			@RequestBody byte[] planJson,
 			Authentication authentication) {
+		Future<StoredPlan> previousRead = null;
 		try {
-			JSONObject jsonObject = new JSONObject(planJson);
-			planSchema.validate(jsonObject);
+			ObjectNode plan = readPlan(planJson);
+
+			// The plan this one replaces is read from Redis while the request is validated and
+			// serialized; the write is the first step that needs it
+			if (plan.hasNonNull("objectId")) {
+				String id = plan.get("objectId").asText();
+				previousRead = fanOutExecutor.submit(() -> planStorageService.getPlan(id));
+			}
+			planValidator.validate(plan);
 
-			String objectId = jsonObject.getString("objectId");
-			String etag = DigestUtils.md5DigestAsHex(planJson.getBytes());
+			String objectId = plan.required("objectId").asText();
+			String etag = DigestUtils.md5DigestAsHex(planJson);
 
 			// Create metadata
-			Map<String, Object> metadata = new HashMap<>();
+			ObjectNode metadata = objectMapper.createObjectNode();
 			metadata.put("created_by", authentication.getName());
 			metadata.put("created_at", LocalDateTime.now().toString());
 			metadata.put("updated_at", LocalDateTime.now().toString());
 
-			// Create response
-			DataResponse response = new DataResponse(jsonObject.toMap());
-
-			// Store in Redis with metadata
-			JSONObject redisData = new JSONObject();
-			redisData.put("data", jsonObject);
-			redisData.put("metadata", metadata);
-			redisData.put("etag", etag);
-			redisTemplate.opsForValue().set(objectId, redisData.toString());
+			// Store in Redis with metadata, replacing any plan previously stored under this id.
+			// The index changes go out through the outbox written together with the plan.
+			String data = objectMapper.writeValueAsString(plan);
+			boolean saved = false;
+			for (int attempt = 0; attempt < maxWriteAttempts && !saved; attempt++) {
+				StoredPlan previous = attempt == 0 && previousRead != null
+						? previousRead.get()
+						: planStorageService.getPlan(objectId);
+				saved = planStorageService.savePlan(objectId, plan, data, metadata, etag, previous);
+			}
+			if (!saved) {
+				return conflict();
+			}
 
-			// Send message to RabbitMQ for async processing
-			rabbitMQProducerService.sendMessage(jsonObject);
+			// Create response from the serialized data that was stored
+			DataResponse response = new DataResponse(data);
 
 			URI location = ServletUriComponentsBuilder.fromCurrentRequest()
 					.path("/{id}")
@@ -109,29 +174,95 @@ class PlanController {
 					.eTag(etag)
 					.body(response);
 
-		} catch (ValidationException ve) {
+		} catch (PlanValidationException ve) {
 			return ResponseEntity.badRequest()
 					.body(new ErrorResponse(ve.getAllMessages().toString(), "VALIDATION_ERROR"));
 		} catch (Exception e) {
 			return ResponseEntity.badRequest()
 					.body(new ErrorResponse("Invalid JSON payload", "INVALID_PAYLOAD"));
+		} finally {
+			// Nothing started for this request outlives it
+			if (previousRead != null) {
+				previousRead.cancel(true);
+			}
 		}
 	}
 
+	// POST /api/v1/plans/_bulk - Create or replace plans from NDJSON, one plan per line. The
+	// upload is read and answered as a stream, one result line per plan, so neither side has
+	// to hold it in memory.
+	@PostMapping(value = "/_bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE,
+			produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> bulkCreatePlans(
+			HttpServletRequest request,
+			Authentication authentication) {
+		String username = authentication.getName();
+		StreamingResponseBody results = out ->
+				planBulkIngestService.ingest(request.getInputStream(), out, username);
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.body(results);
+	}
+
+	// GET /api/v1/plans/_export - Stream every stored plan as NDJSON, gzip-compressed when the
+	// client accepts it. Checkpoint lines carry the cursor to resume an interrupted export from.
+	@GetMapping("/_export")
+	public ResponseEntity<?> exportPlans(
+			@RequestParam(required = false) String cursor,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+		if (cursor != null) {
+			try {
+				PlanStorageService.checkExportCursor(cursor);
+			} catch (IllegalArgumentException e) {
+				return ResponseEntity.badRequest()
+						.contentType(MediaType.APPLICATION_JSON)
+						.body(new ErrorResponse(e.getMessage(), "INVALID_CURSOR"));
+			}
+		}
+
+		boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+		StreamingResponseBody plans = out -> planExportService.export(cursor, out, gzip);
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (gzip) {
+			response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+		return response.body(plans);
+	}
+
 	// GET /api/v1/plans/{id} - Retrieve a plan with ETag support
 	@GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<?> getPlan(
 			@PathVariable("id") String id,
 			@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
 		try {
-			String planJson = redisTemplate.opsForValue().get(id);
-			if (planJson == null) {
-				return ResponseEntity.status(HttpStatus.NOT_FOUND)
-						.body(new ErrorResponse("Plan not found", "NOT_FOUND"));
+			PlanBody plan = planCacheService.get(id);
+			if (plan == null && ifNoneMatch != null) {
+				// Conditional GET: answer from the ETag field alone when the client copy is current
+				String etag = planStorageService.getEtag(id);
+				if (etag == null) {
+					return ResponseEntity.status(HttpStatus.NOT_FOUND)
+							.body(new ErrorResponse("Plan not found", "NOT_FOUND"));
+				}
+				if (etag.equals(ifNoneMatch)) {
+					return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+							.eTag(etag)
+							.build();
+				}
+			}
+			if (plan == null) {
+				long stamp = planCacheService.stamp(id);
+				// The stored data bytes are served as is, without parsing or re-serializing them
+				plan = planStorageService.getPlanBody(id);
+				if (plan == null) {
+					return ResponseEntity.status(HttpStatus.NOT_FOUND)
+							.body(new ErrorResponse("Plan not found", "NOT_FOUND"));
+				}
+				planCacheService.put(id, stamp, plan);
 			}
 
-			JSONObject jsonObject = new JSONObject(planJson);
-			String etag = jsonObject.getString("etag");
+			String etag = plan.getEtag();
 
 			if (etag.equals(ifNoneMatch)) {
 				return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
@@ -142,7 +273,7 @@ class PlanController {
 			// Return only the data portion
 			return ResponseEntity.ok()
 					.eTag(etag)
-					.body(jsonObject.getJSONObject("data").toString());
+					.body(plan.getData());
 
 		} catch (Exception e) {
 			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -154,52 +285,61 @@ class PlanController {
 	@PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<?> updatePlan(
 			@PathVariable("id") String id,
-			@RequestBody String planJson,
+			@RequestBody byte[] planJson,
 			@RequestHeader(value = "If-Match", required = false) String ifMatch,
 			Authentication authentication) {
 		try {
-			String existingJson = redisTemplate.opsForValue().get(id);
-			if (existingJson == null) {
+			String existingEtag = planStorageService.getEtag(id);
+			if (existingEtag == null) {
 				return ResponseEntity.status(HttpStatus.NOT_FOUND)
 						.body(new ErrorResponse("Plan not found", "NOT_FOUND"));
 			}
 
-			JSONObject existing = new JSONObject(existingJson);
-			String existingEtag = existing.getString("etag");
-
 			if (ifMatch != null && !existingEtag.equals(ifMatch)) {
 				return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
 						.body(new ErrorResponse("Precondition failed", "PRECONDITION_FAILED"));
 			}
 
-			JSONObject newPlan = new JSONObject(planJson);
-			planSchema.validate(newPlan);
+			ObjectNode newPlan = readPlan(planJson);
+			planValidator.validate(newPlan);
 
-			String newEtag = DigestUtils.md5DigestAsHex(planJson.getBytes());
+			String newEtag = DigestUtils.md5DigestAsHex(planJson);
+			String data = objectMapper.writeValueAsString(newPlan);
 
-			// Update metadata
-			Map<String, Object> metadata = existing.getJSONObject("metadata").toMap();
-			metadata.put("updated_by", authentication.getName());
-			metadata.put("updated_at", LocalDateTime.now().toString());
+			// The stored version is only needed once the request is known to be valid. The write
+			// only applies while the plan is still that version; after losing to another writer
+			// the plan is read again, and a request bound to If-Match then fails its precondition.
+			for (int attempt = 0; attempt < maxWriteAttempts; attempt++) {
+				StoredPlan existing = planStorageService.getPlan(id);
+				if (existing == null) {
+					return ResponseEntity.status(HttpStatus.NOT_FOUND)
+							.body(new ErrorResponse("Plan not found", "NOT_FOUND"));
+				}
+				if (ifMatch != null && !existing.getEtag().equals(ifMatch)) {
+					return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+							.body(new ErrorResponse("Precondition failed", "PRECONDITION_FAILED"));
+				}
 
-			// Create response
-			DataResponse response = new DataResponse(newPlan.toMap());
+				// Update metadata
+				ObjectNode metadata = existing.getMetadata();
+				metadata.put("updated_by", authentication.getName());
+				metadata.put("updated_at", LocalDateTime.now().toString());
 
-			// Store in Redis with metadata
-			JSONObject redisData = new JSONObject();
-			redisData.put("data", newPlan);
-			redisData.put("metadata", metadata);
-			redisData.put("etag", newEtag);
-			redisTemplate.opsForValue().set(id, redisData.toString());
+				// Store in Redis with metadata; the index changes are queued in the same step
+				if (!planStorageService.savePlan(id, newPlan, data, metadata, newEtag, existing)) {
+					continue;
+				}
 
-			// Send message to RabbitMQ for async processing
-			rabbitMQProducerService.sendMessage(newPlan);
+				// Create response from the serialized data that was stored
+				DataResponse response = new DataResponse(data);
 
-			return ResponseEntity.ok()
-					.eTag(newEtag)
-					.body(response);
+				return ResponseEntity.ok()
+						.eTag(newEtag)
+						.body(response);
+			}
+			return conflict();
 
-		} catch (ValidationException ve) {
+		} catch (PlanValidationException ve) {
 			return ResponseEntity.badRequest()
 					.body(new ErrorResponse(ve.getAllMessages().toString(), "VALIDATION_ERROR"));
 		} catch (Exception e) {
@@ -208,149 +348,79 @@ class PlanController {
 		}
 	}
 
-	// Helper method to deep merge objects
-	private Map<String, Object> deepMerge(Map<String, Object> existing, Map<String, Object> patch) {
-		Map<String, Object> result = new HashMap<>(existing);
-
-		for (Map.Entry<String, Object> entry : patch.entrySet()) {
-			String key = entry.getKey();
-			Object patchValue = entry.getValue();
-
-			if (patchValue instanceof Map && result.containsKey(key) && result.get(key) instanceof Map) {
-				// Recursively merge nested objects
-				result.put(key, deepMerge(
-						(Map<String, Object>) result.get(key),
-						(Map<String, Object>) patchValue));
-			} else if (patchValue instanceof List && result.containsKey(key) && result.get(key) instanceof List) {
-				// Handle arrays with special merge logic
-				result.put(key, mergeArrays((List<Object>) result.get(key), (List<Object>) patchValue));
-			} else {
-				// For primitive values or new fields, use the patch value
-				result.put(key, patchValue);
-			}
-		}
-
-		return result;
-	}
-
-	// Helper method to merge arrays with specific rules
-	private List<Object> mergeArrays(List<Object> existing, List<Object> patch) {
-		List<Object> result = new ArrayList<>(existing);
-
-		for (Object patchItem : patch) {
-			if (patchItem instanceof Map) {
-				Map<String, Object> patchMap = (Map<String, Object>) patchItem;
-				String objectId = (String) patchMap.get("objectId");
-
-				if (objectId == null) {
-					// If no objectId, append as new item
-					result.add(patchItem);
-					continue;
-				}
-
-				// Find existing item with matching objectId
-				boolean found = false;
-				for (int i = 0; i < result.size(); i++) {
-					Object existingItem = result.get(i);
-					if (existingItem instanceof Map) {
-						Map<String, Object> existingMap = (Map<String, Object>) existingItem;
-						String existingId = (String) existingMap.get("objectId");
-
-						if (objectId.equals(existingId)) {
-							// If found and different, replace with new item
-							if (!existingItem.equals(patchItem)) {
-								result.set(i, patchItem);
-							}
-							found = true;
-							break;
-						}
-					}
-				}
-
-				// If not found, append as new item
-				if (!found) {
-					result.add(patchItem);
-				}
-			} else {
-				// For non-map items, append if not already present
-				if (!result.contains(patchItem)) {
-					result.add(patchItem);
-				}
-			}
-		}
-
-		return result;
-	}
-
 	// PATCH /api/v1/plans/{id} - Partially update a plan
 	@PatchMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<?> patchPlan(
 			@PathVariable("id") String id,
-			@RequestBody String planJson,
+			@RequestBody byte[] planJson,
 			@RequestHeader(value = "If-Match", required = false) String ifMatch,
 			Authentication authentication) {
 		try {
-			String existingJson = redisTemplate.opsForValue().get(id);
-			if (existingJson == null) {
+			String existingEtag = planStorageService.getEtag(id);
+			if (existingEtag == null) {
 				return ResponseEntity.status(HttpStatus.NOT_FOUND)
 						.body(new ErrorResponse("Plan not found", "NOT_FOUND"));
 			}
 
-			JSONObject existing = new JSONObject(existingJson);
-			String existingEtag = existing.getString("etag");
-
 			// Check If-Match header
 			if (!existingEtag.equals(ifMatch)) {
 				return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
 						.body(new ErrorResponse("Precondition failed", "PRECONDITION_FAILED"));
 			}
 
-			JSONObject patch = new JSONObject(planJson);
+			ObjectNode patch = readPlan(planJson);
 
 			// Handle both direct plan data and full response format
-			JSONObject patchData;
+			ObjectNode patchData;
 			if (patch.has("data")) {
-				patchData = patch.getJSONObject("data");
+				patchData = (ObjectNode) patch.get("data");
 			} else {
 				patchData = patch;
 			}
 
-			// Deep merge the data
-			Map<String, Object> mergedData = deepMerge(
-					existing.getJSONObject("data").toMap(),
-					patchData.toMap());
+			// The merge is only stored while the plan is still the version it was made from;
+			// once another write got in first the plan no longer matches If-Match either
+			for (int attempt = 0; attempt < maxWriteAttempts; attempt++) {
+				StoredPlan existing = planStorageService.getPlan(id);
+				if (existing == null) {
+					return ResponseEntity.status(HttpStatus.NOT_FOUND)
+							.body(new ErrorResponse("Plan not found", "NOT_FOUND"));
+				}
+				if (!existing.getEtag().equals(ifMatch)) {
+					return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+							.body(new ErrorResponse("Precondition failed", "PRECONDITION_FAILED"));
+				}
 
-			// Validate the merged data against the schema
-			planSchema.validate(new JSONObject(mergedData));
+				// Deep merge the data into a copy, the stored version is still needed for cleanup
+				ObjectNode mergedPlan = PlanTrees.deepMerge(existing.getData().deepCopy(), patchData);
 
-			// Update metadata
-			Map<String, Object> metadata = existing.getJSONObject("metadata").toMap();
-			metadata.put("updated_by", authentication.getName());
-			metadata.put("updated_at", LocalDateTime.now().toString());
+				// Validate the merged data against the schema
+				planValidator.validate(mergedPlan);
 
-			String newEtag = DigestUtils.md5DigestAsHex(new JSONObject(mergedData).toString().getBytes());
+				// Update metadata
+				ObjectNode metadata = existing.getMetadata();
+				metadata.put("updated_by", authentication.getName());
+				metadata.put("updated_at", LocalDateTime.now().toString());
 
-			// Create response
-			DataResponse response = new DataResponse(mergedData);
+				// Serialize once; the same string is hashed, stored, returned and published
+				String data = objectMapper.writeValueAsString(mergedPlan);
+				String newEtag = DigestUtils.md5DigestAsHex(data.getBytes(StandardCharsets.UTF_8));
 
-			// Store in Redis with metadata
-			JSONObject redisData = new JSONObject();
-			redisData.put("data", new JSONObject(mergedData));
-			redisData.put("metadata", metadata);
-			redisData.put("etag", newEtag);
-			redisTemplate.opsForValue().set(id, redisData.toString());
+				// Store in Redis with metadata; only the documents the merge changed are queued for indexing
+				if (!planStorageService.savePlan(id, mergedPlan, data, metadata, newEtag, existing)) {
+					continue;
+				}
 
-			// Send message to RabbitMQ for async processing
-			// rabbitMQProducerService.sendMessage(patch);
-			// Send message to RabbitMQ for async processing
-			JSONObject updatedPlan = new JSONObject(mergedData);
-			rabbitMQProducerService.sendMessage(updatedPlan);
+				// Create response from the serialized data that was stored
+				DataResponse response = new DataResponse(data);
 
-			return ResponseEntity.ok()
-					.eTag(newEtag)
-					.body(response);
+				return ResponseEntity.ok()
+						.eTag(newEtag)
+						.body(response);
+			}
+			return conflict();
 
-		} catch (ValidationException ve) {
+		} catch (PlanValidationException ve) {
 			return ResponseEntity.badRequest()
 					.body(new ErrorResponse(ve.getAllMessages().toString(), "VALIDATION_ERROR"));
 		} catch (Exception e) {
@@ -386,195 +456,178 @@ class PlanController {
 	@DeleteMapping("/{id}")
 	public ResponseEntity<?> deletePlan(@PathVariable("id") String id) {
 		try {
-			// Check if this is a direct plan ID
-			Boolean planExists = redisTemplate.hasKey(id);
-			if (planExists != null && planExists) {
-				// This is a top-level plan ID - delete it directly
-				redisTemplate.delete(id);
-
-				// Send delete message to RabbitMQ
-				JSONObject deleteMessage = new JSONObject();
-				deleteMessage.put("operation", "delete");
-				deleteMessage.put("objectId", id);
-				rabbitMQProducerService.sendMessage(deleteMessage);
-
-				return ResponseEntity.noContent().build();
-			} else {
-				// This might be a child object ID - search for it in all plans
-				boolean childFound = false;
-
-				// Get all keys (could be optimized with pattern matching if Redis supports it)
-				Set<String> keys = redisTemplate.keys("*");
-				for (String planKey : keys) {
-					String planJson = redisTemplate.opsForValue().get(planKey);
-					if (planJson == null)
+			// Both deletes are compare-and-set writes; after losing to a concurrent write the
+			// plan is read again and the delete re-applied to what is stored now
+			for (int attempt = 0; attempt < maxWriteAttempts; attempt++) {
+				// Check if this is a direct plan ID
+				StoredPlan plan = planStorageService.getPlan(id);
+				if (plan != null) {
+					// This is a top-level plan ID - delete it together with its child index entries,
+					// queueing a delete for every one of its documents
+					if (!planStorageService.deletePlan(id, plan)) {
 						continue;
+					}
 
-					JSONObject existing = new JSONObject(planJson);
-					JSONObject planData = existing.getJSONObject("data");
+					return ResponseEntity.noContent().build();
+				}
 
-					// Check if this plan contains the child ID
-					if (containsChildWithId(planData, id)) {
-						// Remove the child with that ID
-						removeChildWithId(planData, id);
+				// This might be a child object ID - look up its owning plan in the reverse index
+				String planKey = planStorageService.findOwningPlan(id);
+				StoredPlan existing = planKey != null ? planStorageService.getPlan(planKey) : null;
 
-						// Update plan metadata
-						String username = "system"; // or get from authentication if available
-						Map<String, Object> metadata = existing.getJSONObject("metadata").toMap();
-						metadata.put("updated_by", username);
-						metadata.put("updated_at", LocalDateTime.now().toString());
+				if (existing == null || !PlanTrees.containsChildWithId(existing.getData(), id)) {
+					if (planKey != null) {
+						planStorageService.removeChildEntry(id, planKey);
+					}
+					return ResponseEntity.status(HttpStatus.NOT_FOUND)
+							.body(new ErrorResponse("Object not found", "NOT_FOUND"));
+				}
 
-						// Calculate new ETag
-						String newEtag = DigestUtils.md5DigestAsHex(planData.toString().getBytes());
+				// Remove the child with that ID from a copy, the stored version is still needed for cleanup
+				ObjectNode planData = existing.getData().deepCopy();
+				PlanTrees.removeChildWithId(planData, id);
 
-						// Store updated plan
-						JSONObject redisData = new JSONObject();
-						redisData.put("data", planData);
-						redisData.put("metadata", metadata);
-						redisData.put("etag", newEtag);
-						redisTemplate.opsForValue().set(planKey, redisData.toString());
+				// Update plan metadata
+				String username = "system"; // or get from authentication if available
+				ObjectNode metadata = existing.getMetadata();
+				metadata.put("updated_by", username);
+				metadata.put("updated_at", LocalDateTime.now().toString());
 
-						// Send message to RabbitMQ for async processing
-						rabbitMQProducerService.sendMessage(planData);
+				// Calculate new ETag
+				String data = objectMapper.writeValueAsString(planData);
+				String newEtag = DigestUtils.md5DigestAsHex(data.getBytes(StandardCharsets.UTF_8));
 
-						childFound = true;
-						break;
-					}
+				// Store updated plan, queueing the deletes of the removed documents
+				if (!planStorageService.savePlan(planKey, planData, data, metadata, newEtag, existing)) {
+					continue;
 				}
 
-				if (childFound) {
-					return ResponseEntity.noContent().build();
-				} else {
-					return ResponseEntity.status(HttpStatus.NOT_FOUND)
-							.body(new ErrorResponse("Object not found", "NOT_FOUND"));
-				}
+				return ResponseEntity.noContent().build();
 			}
+			return conflict();
 		} catch (Exception e) {
 			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
 					.body(new ErrorResponse("Failed to delete object: " + e.getMessage(), "INTERNAL_ERROR"));
 		}
 	}
 
-	// Helper method to check if a plan contains a child with the given ID
-	private boolean containsChildWithId(JSONObject planData, String childId) {
-		// Check planCostShares
-		if (planData.has("planCostShares")) {
-			JSONObject costShares = planData.getJSONObject("planCostShares");
-			if (childId.equals(costShares.optString("objectId"))) {
-				return true;
-			}
-		}
-
-		// Check linkedPlanServices
-		if (planData.has("linkedPlanServices")) {
-			JSONArray services = planData.getJSONArray("linkedPlanServices");
-			for (int i = 0; i < services.length(); i++) {
-				JSONObject service = services.getJSONObject(i);
-
-				// Check service itself
-				if (childId.equals(service.optString("objectId"))) {
-					return true;
-				}
-
-				// Check linkedService
-				if (service.has("linkedService")) {
-					JSONObject linkedService = service.getJSONObject("linkedService");
-					if (childId.equals(linkedService.optString("objectId"))) {
-						return true;
-					}
-				}
-
-				// Check planserviceCostShares
-				if (service.has("planserviceCostShares")) {
-					JSONObject serviceCostShares = service.getJSONObject("planserviceCostShares");
-					if (childId.equals(serviceCostShares.optString("objectId"))) {
-						return true;
-					}
-				}
-			}
+	// POST /api/v1/plans/_admin/child-index/rebuild - Rebuild the child objectId -> plan index
+	@PostMapping("/_admin/child-index/rebuild")
+	public ResponseEntity<?> rebuildChildIndex() {
+		try {
+			int plans = planStorageService.rebuildChildIndex();
+			return ResponseEntity.ok(Map.of("indexedPlans", plans));
+		} catch (Exception e) {
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+					.body(new ErrorResponse("Failed to rebuild child index: " + e.getMessage(), "INTERNAL_ERROR"));
 		}
-
-		return false;
 	}
 
-	// Helper method to remove a child with the given ID
-	private void removeChildWithId(JSONObject planData, String childId) {
-		// We can't remove planCostShares (required field), so we'd just update it
-		if (planData.has("planCostShares")) {
-			JSONObject costShares = planData.getJSONObject("planCostShares");
-			if (childId.equals(costShares.optString("objectId"))) {
-				// We could reset values but keep the object
-				costShares.put("deductible", 0);
-				costShares.put("copay", 0);
-				return;
-			}
+	// POST /api/v1/plans/_admin/reindex - Rebuild the search index from Redis in the background,
+	// resuming the last job from its checkpoint unless it completed or restart=true
+	@PostMapping("/_admin/reindex")
+	public ResponseEntity<?> startReindex(@RequestParam(defaultValue = "false") boolean restart) {
+		try {
+			return ResponseEntity.accepted().body(planReindexService.startReindex(restart));
+		} catch (IllegalStateException e) {
+			return ResponseEntity.status(HttpStatus.CONFLICT)
+					.body(new ErrorResponse(e.getMessage(), "REINDEX_RUNNING"));
+		} catch (Exception e) {
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+					.body(new ErrorResponse("Failed to start reindex: " + e.getMessage(), "INTERNAL_ERROR"));
 		}
+	}
 
-		// Check linkedPlanServices
-		if (planData.has("linkedPlanServices")) {
-			JSONArray services = planData.getJSONArray("linkedPlanServices");
-			JSONArray updatedServices = new JSONArray();
-
-			for (int i = 0; i < services.length(); i++) {
-				JSONObject service = services.getJSONObject(i);
-
-				// Skip if this is the service to remove
-				if (childId.equals(service.optString("objectId"))) {
-					continue;
-				}
-
-				// Check if we need to modify the service's children
-				boolean addService = true;
-
-				if (service.has("linkedService")) {
-					JSONObject linkedService = service.getJSONObject("linkedService");
-					if (childId.equals(linkedService.optString("objectId"))) {
-						// If linkedService is the target, remove the whole service
-						addService = false;
-					}
-				}
-
-				if (service.has("planserviceCostShares")) {
-					JSONObject serviceCostShares = service.getJSONObject("planserviceCostShares");
-					if (childId.equals(serviceCostShares.optString("objectId"))) {
-						// If planserviceCostShares is the target, remove the whole service
-						addService = false;
-					}
-				}
-
-				if (addService) {
-					updatedServices.put(service);
-				}
-			}
-
-			// Replace the services array
-			planData.put("linkedPlanServices", updatedServices);
+	// GET /api/v1/plans/_admin/reindex - Progress, throughput and ETA of the current or last reindex
+	@GetMapping("/_admin/reindex")
+	public ResponseEntity<?> getReindexStatus() {
+		try {
+			return ResponseEntity.ok(planReindexService.status());
+		} catch (Exception e) {
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+					.body(new ErrorResponse("Failed to read reindex status: " + e.getMessage(), "INTERNAL_ERROR"));
 		}
 	}
 
+	// GET /api/v1/plans/search - One page of the plans matching every given parameter. The
+	// cursor of a page, passed back with the same parameters, returns the next one.
 	@GetMapping("/search")
 	public ResponseEntity<?> searchPlans(
 			@RequestParam(required = false) String org,
 			@RequestParam(required = false) String planType,
-			@RequestParam(required = false) String serviceId) {
+			@RequestParam(required = false) String serviceId,
+			@RequestParam(required = false) List<String> fields,
+			@RequestParam(required = false) Integer size,
+			@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Boolean trackTotalHits) {
+		if (org == null && planType == null && serviceId == null) {
+			return ResponseEntity.badRequest()
+					.body(new ErrorResponse("At least one search parameter is required", "INVALID_SEARCH"));
+		}
 		try {
-			List<PlanDocument> results;
-
-			if (org != null) {
-				results = elasticsearchService.searchByOrganization(org);
-			} else if (planType != null) {
-				results = elasticsearchService.searchByPlanType(planType);
-			} else if (serviceId != null) {
-				results = elasticsearchService.searchByServiceId(serviceId);
-			} else {
-				return ResponseEntity.badRequest()
-						.body(new ErrorResponse("At least one search parameter is required", "INVALID_SEARCH"));
+			PlanFilter filter = new PlanFilter(org, planType, serviceId, null, null, null, null);
+			PlanSearchResponse page = planSearchCacheService.search(new ElasticsearchService.PlanSearch(
+					filter, fields, size, cursor, trackTotalHits)).get();
+			return ResponseEntity.ok(page);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest()
+					.body(new ErrorResponse(e.getMessage(), "INVALID_CURSOR"));
+		} catch (Exception e) {
+			if (cursor != null && ElasticsearchService.isExpiredSearch(e)) {
+				return ResponseEntity.status(HttpStatus.GONE)
+						.body(new ErrorResponse("Search cursor expired, start the search again", "CURSOR_EXPIRED"));
 			}
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+					.body(new ErrorResponse("Search failed", "SEARCH_ERROR"));
+		}
+	}
 
-			return ResponseEntity.ok(results);
+	// POST /api/v1/plans/_search - One page of the plans matching a structured filter, e.g.
+	// {"filter": {"org": "example.com", "copay": {"lte": 20}}, "size": 50}. The cursor of a page,
+	// sent back with the same filter, returns the next one.
+	@PostMapping("/_search")
+	public ResponseEntity<?> searchPlansByFilter(@RequestBody(required = false) ElasticsearchService.PlanSearch search) {
+		ElasticsearchService.PlanSearch request = search != null
+				? search
+				: new ElasticsearchService.PlanSearch(null, null, null, null, null);
+		try {
+			PlanFilterQueries.check(request.filter());
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage(), "INVALID_FILTER"));
+		}
+		try {
+			return ResponseEntity.ok(planSearchCacheService.search(request).get());
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest()
+					.body(new ErrorResponse(e.getMessage(), "INVALID_CURSOR"));
 		} catch (Exception e) {
+			if (request.cursor() != null && ElasticsearchService.isExpiredSearch(e)) {
+				return ResponseEntity.status(HttpStatus.GONE)
+						.body(new ErrorResponse("Search cursor expired, start the search again", "CURSOR_EXPIRED"));
+			}
 			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
 					.body(new ErrorResponse("Search failed", "SEARCH_ERROR"));
 		}
 	}
+
+	// GET /api/v1/plans/_stats - Copay and deductible statistics of the matching plans' cost shares,
+	// per org or plan type with groupBy=org|planType, and the plans created per interval
+	@GetMapping("/_stats")
+	public ResponseEntity<?> planStats(
+			@RequestParam(required = false) String groupBy,
+			@RequestParam(required = false) String org,
+			@RequestParam(required = false) String planType,
+			@RequestParam(required = false) String interval,
+			@RequestParam(required = false) Integer size) {
+		PlanStatsService.PlanStatsQuery stats = new PlanStatsService.PlanStatsQuery(
+				new PlanFilter(org, planType, null, null, null, null, null), groupBy, interval, size);
+		try {
+			return ResponseEntity.ok(planStatsService.stats(stats).get());
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage(), "INVALID_STATS"));
+		} catch (Exception e) {
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+					.body(new ErrorResponse("Failed to compute plan statistics", "STATS_ERROR"));
+		}
+	}
 }
@@ -0,0 +1,565 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.example.demo.model.DataResponse;
+import com.example.demo.model.ErrorResponse;
+import com.example.demo.model.PlanFilter;
+import com.example.demo.service.ElasticsearchService;
+import com.example.demo.service.PlanBulkIngestService;
+import com.example.demo.service.PlanBody;
+import com.example.demo.service.PlanCacheService;
+import com.example.demo.service.PlanExportService;
+import com.example.demo.service.PlanFilterQueries;
+import com.example.demo.service.PlanReindexService;
+import com.example.demo.service.PlanStatsService;
+import com.example.demo.service.PlanSearchCacheService;
+import com.example.demo.service.PlanStorageService;
+import com.example.demo.service.PlanTrees;
+import com.example.demo.service.PlanValidationException;
+import com.example.demo.service.PlanValidator;
+import com.example.demo.service.ReactivePlanStorageService;
+import com.example.demo.service.StoredPlan;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// The plan API on the event loop, active with spring.main.web-application-type=reactive. Same
+// endpoints, ETags, validation, merge and compare-and-set writes as PlanController; the Redis
+// and Elasticsearch calls are non-blocking, so a request holds no thread while it waits.
+@RestController
+@RequestMapping("/api/v1/plans")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+class ReactivePlanController {
+
+	private final ElasticsearchService elasticsearchService;
+	private final ReactivePlanStorageService planStorageService;
+	private final PlanStorageService blockingPlanStorageService;
+	private final PlanCacheService planCacheService;
+	private final PlanValidator planValidator;
+	private final ObjectMapper objectMapper;
+	private final int maxWriteAttempts;
+	private final PlanBulkIngestService planBulkIngestService;
+	private final PlanExportService planExportService;
+	private final PlanSearchCacheService planSearchCacheService;
+	private final PlanReindexService planReindexService;
+	private final PlanStatsService planStatsService;
+
+	@Autowired
+	public ReactivePlanController(
+			ElasticsearchService elasticsearchService,
+			ReactivePlanStorageService planStorageService,
+			PlanStorageService blockingPlanStorageService,
+			PlanCacheService planCacheService,
+			PlanValidator planValidator,
+			ObjectMapper objectMapper,
+			@Value("${plan.write.max-attempts:5}") int maxWriteAttempts,
+			PlanBulkIngestService planBulkIngestService,
+			PlanExportService planExportService,
+			PlanSearchCacheService planSearchCacheService,
+			PlanReindexService planReindexService,
+			PlanStatsService planStatsService) {
+		this.elasticsearchService = elasticsearchService;
+		this.planStorageService = planStorageService;
+		this.blockingPlanStorageService = blockingPlanStorageService;
+		this.planCacheService = planCacheService;
+		this.planValidator = planValidator;
+		this.objectMapper = objectMapper;
+		this.maxWriteAttempts = Math.max(1, maxWriteAttempts);
+		this.planBulkIngestService = planBulkIngestService;
+		this.planExportService = planExportService;
+		this.planSearchCacheService = planSearchCacheService;
+		this.planReindexService = planReindexService;
+		this.planStatsService = planStatsService;
+	}
+
+	// Runs a compare-and-set write. An attempt completes empty when it lost to a concurrent
+	// write; it is then started again from its reads, at most maxWriteAttempts times in all.
+	private Mono<ResponseEntity<?>> retrying(Supplier<Mono<ResponseEntity<?>>> attempt) {
+		return retrying(attempt, maxWriteAttempts);
+	}
+
+	private Mono<ResponseEntity<?>> retrying(Supplier<Mono<ResponseEntity<?>>> attempt, int attemptsLeft) {
+		return Mono.defer(attempt)
+				.switchIfEmpty(Mono.defer(() -> attemptsLeft > 1
+						? retrying(attempt, attemptsLeft - 1)
+						: Mono.just(conflict())));
+	}
+
+	private static ResponseEntity<?> conflict() {
+		return ResponseEntity.status(HttpStatus.CONFLICT)
+				.body(new ErrorResponse("Plan was modified concurrently, please retry", "CONFLICT"));
+	}
+
+	private static ResponseEntity<?> notFound(String message) {
+		return ResponseEntity.status(HttpStatus.NOT_FOUND)
+				.body(new ErrorResponse(message, "NOT_FOUND"));
+	}
+
+	private static ResponseEntity<?> preconditionFailed() {
+		return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+				.body(new ErrorResponse("Precondition failed", "PRECONDITION_FAILED"));
+	}
+
+	private static ResponseEntity<?> validationError(PlanValidationException ve) {
+		return ResponseEntity.badRequest()
+				.body(new ErrorResponse(ve.getAllMessages().toString(), "VALIDATION_ERROR"));
+	}
+
+	private static ResponseEntity<?> internalError(String message) {
+		return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+				.body(new ErrorResponse(message, "INTERNAL_ERROR"));
+	}
+
+	// The stored plan, empty when there is none; unlike an empty Mono this tells a missing plan
+	// apart from a write that lost its compare-and-set
+	private Mono<Optional<StoredPlan>> storedPlan(String planId) {
+		return planStorageService.getPlan(planId)
+				.map(Optional::of)
+				.defaultIfEmpty(Optional.empty());
+	}
+
+	private ObjectNode readPlan(byte[] body) throws IOException {
+		JsonNode node = objectMapper.readTree(body);
+		if (node == null || !node.isObject()) {
+			throw new IllegalArgumentException("Request body must be a JSON object");
+		}
+		return (ObjectNode) node;
+	}
+
+	// POST /api/v1/plans - Create a new plan
+	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+	public Mono<ResponseEntity<?>> createPlan(
+			@RequestBody byte[] planJson,
+			Authentication authentication,
+			ServerHttpRequest request) {
+		ObjectNode plan;
+		String data;
+		try {
+			plan = readPlan(planJson);
+			planValidator.validate(plan);
+			data = objectMapper.writeValueAsString(plan);
+		} catch (PlanValidationException ve) {
+			return Mono.just(validationError(ve));
+		} catch (Exception e) {
+			return Mono.just(ResponseEntity.badRequest()
+					.body(new ErrorResponse("Invalid JSON payload", "INVALID_PAYLOAD")));
+		}
+
+		String objectId = plan.required("objectId").asText();
+		String etag = DigestUtils.md5DigestAsHex(planJson);
+
+		ObjectNode metadata = objectMapper.createObjectNode();
+		metadata.put("created_by", authentication.getName());
+		metadata.put("created_at", LocalDateTime.now().toString());
+		metadata.put("updated_at", LocalDateTime.now().toString());
+
+		URI location = UriComponentsBuilder.fromUri(request.getURI())
+				.path("/{id}")
+				.buildAndExpand(objectId)
+				.toUri();
+
+		// Replaces any plan previously stored under this id
+		return retrying(() -> storedPlan(objectId)
+				.flatMap(previous -> planStorageService.savePlan(
+						objectId, plan, data, metadata, etag, previous.orElse(null)))
+				.filter(saved -> saved)
+				.map(saved -> ResponseEntity.created(location)
+						.eTag(etag)
+						.body(new DataResponse(data))))
+				.onErrorResume(e -> Mono.just(ResponseEntity.badRequest()
+						.body(new ErrorResponse("Invalid JSON payload", "INVALID_PAYLOAD"))));
+	}
+
+	// POST /api/v1/plans/_bulk - Create or replace plans from NDJSON, one plan per line. Lines
+	// are split off the body as it arrives and stored one batch at a time; the next batch is only
+	// requested from the client once the previous one's results were emitted.
+	@PostMapping(value = "/_bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE,
+			produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public Flux<ObjectNode> bulkCreatePlans(
+			Authentication authentication,
+			ServerHttpRequest request) {
+		String username = authentication.getName();
+
+		// An oversized line gets a 413 result of its own, as on the servlet endpoint, instead of
+		// failing the upload
+		return Flux.defer(() -> {
+					PlanBulkIngestService.LineSplitter splitter = planBulkIngestService.lineSplitter();
+					return request.getBody()
+							.concatMapIterable(buffer -> {
+								try {
+									byte[] bytes = new byte[buffer.readableByteCount()];
+									buffer.read(bytes);
+									return splitter.split(bytes, 0, bytes.length);
+								} finally {
+									DataBufferUtils.release(buffer);
+								}
+							})
+							.concatWith(Flux.defer(() -> Flux.fromIterable(splitter.finish())));
+				})
+				.filter(PlanBulkIngestService::isPlanLine)
+				.buffer(planBulkIngestService.getBatchSize())
+				// Storing a batch blocks on Redis round trips, so it runs off the event loop
+				.concatMap(batch -> Mono.fromCallable(() -> planBulkIngestService.ingest(batch, username))
+						.subscribeOn(Schedulers.boundedElastic()))
+				.concatMapIterable(results -> results);
+	}
+
+	// GET /api/v1/plans/_export - Stream every stored plan as NDJSON, gzip-compressed when the
+	// client accepts it. The export runs on the bounded elastic scheduler and is paused while the
+	// client is not reading, so a slow client holds one page in memory at most.
+	@GetMapping("/_export")
+	public ResponseEntity<Flux<DataBuffer>> exportPlans(
+			@RequestParam(required = false) String cursor,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+			ServerHttpResponse response) throws IOException {
+		if (cursor != null) {
+			try {
+				PlanStorageService.checkExportCursor(cursor);
+			} catch (IllegalArgumentException e) {
+				byte[] error = objectMapper.writeValueAsBytes(new ErrorResponse(e.getMessage(), "INVALID_CURSOR"));
+				return ResponseEntity.badRequest()
+						.contentType(MediaType.APPLICATION_JSON)
+						.body(Flux.just(response.bufferFactory().wrap(error)));
+			}
+		}
+
+		boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+		Flux<DataBuffer> plans = Flux.from(DataBufferUtils.outputStreamPublisher(out -> {
+			try {
+				planExportService.export(cursor, out, gzip);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, response.bufferFactory(), task -> Schedulers.boundedElastic().schedule(task)));
+
+		ResponseEntity.BodyBuilder ok = ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (gzip) {
+			ok.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+		return ok.body(plans);
+	}
+
+	// GET /api/v1/plans/{id} - Retrieve a plan with ETag support
+	@GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public Mono<ResponseEntity<?>> getPlan(
+			@PathVariable("id") String id,
+			@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+		PlanBody cached = planCacheService.get(id);
+		if (cached != null) {
+			return Mono.just(planResponse(cached, ifNoneMatch));
+		}
+
+		Mono<ResponseEntity<?>> load = Mono.defer(() -> {
+			long stamp = planCacheService.stamp(id);
+			// The stored data bytes are served as is, without parsing or re-serializing them
+			return planStorageService.getPlanBody(id)
+					.<ResponseEntity<?>>map(plan -> planResponse(planCacheService.put(id, stamp, plan), ifNoneMatch))
+					.defaultIfEmpty(notFound("Plan not found"));
+		});
+
+		Mono<ResponseEntity<?>> response = load;
+		if (ifNoneMatch != null) {
+			// Conditional GET: answer from the ETag field alone when the client copy is current
+			response = planStorageService.getEtag(id)
+					.flatMap(etag -> etag.equals(ifNoneMatch)
+							? Mono.<ResponseEntity<?>>just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build())
+							: load)
+					.defaultIfEmpty(notFound("Plan not found"));
+		}
+		return response.onErrorResume(e -> Mono.just(internalError("Failed to retrieve plan")));
+	}
+
+	private static ResponseEntity<?> planResponse(PlanBody plan, String ifNoneMatch) {
+		if (plan.getEtag().equals(ifNoneMatch)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+					.eTag(plan.getEtag())
+					.build();
+		}
+		return ResponseEntity.ok()
+				.eTag(plan.getEtag())
+				.body(plan.getData());
+	}
+
+	// PUT /api/v1/plans/{id} - Update a plan
+	@PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public Mono<ResponseEntity<?>> updatePlan(
+			@PathVariable("id") String id,
+			@RequestBody byte[] planJson,
+			@RequestHeader(value = "If-Match", required = false) String ifMatch,
+			Authentication authentication) {
+		return planStorageService.getEtag(id)
+				.flatMap(existingEtag -> {
+					if (ifMatch != null && !existingEtag.equals(ifMatch)) {
+						return Mono.just(preconditionFailed());
+					}
+
+					ObjectNode newPlan;
+					String data;
+					try {
+						newPlan = readPlan(planJson);
+						planValidator.validate(newPlan);
+						data = objectMapper.writeValueAsString(newPlan);
+					} catch (PlanValidationException ve) {
+						return Mono.just(validationError(ve));
+					} catch (Exception e) {
+						return Mono.just(internalError("Failed to update plan"));
+					}
+					String newEtag = DigestUtils.md5DigestAsHex(planJson);
+
+					// Only applies while the plan is still the version read in the same attempt
+					return retrying(() -> storedPlan(id)
+							.flatMap(stored -> {
+								if (stored.isEmpty()) {
+									return Mono.just(notFound("Plan not found"));
+								}
+								StoredPlan existing = stored.get();
+								if (ifMatch != null && !existing.getEtag().equals(ifMatch)) {
+									return Mono.just(preconditionFailed());
+								}
+								ObjectNode metadata = existing.getMetadata();
+								metadata.put("updated_by", authentication.getName());
+								metadata.put("updated_at", LocalDateTime.now().toString());
+								return planStorageService.savePlan(id, newPlan, data, metadata, newEtag, existing)
+										.filter(saved -> saved)
+										.map(saved -> ResponseEntity.ok()
+												.eTag(newEtag)
+												.body(new DataResponse(data)));
+							}));
+				})
+				.defaultIfEmpty(notFound("Plan not found"))
+				.onErrorResume(e -> Mono.just(internalError("Failed to update plan")));
+	}
+
+	// PATCH /api/v1/plans/{id} - Partially update a plan
+	@PatchMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public Mono<ResponseEntity<?>> patchPlan(
+			@PathVariable("id") String id,
+			@RequestBody byte[] planJson,
+			@RequestHeader(value = "If-Match", required = false) String ifMatch,
+			Authentication authentication) {
+		return planStorageService.getEtag(id)
+				.flatMap(existingEtag -> {
+					if (!existingEtag.equals(ifMatch)) {
+						return Mono.just(preconditionFailed());
+					}
+
+					ObjectNode patch;
+					try {
+						patch = readPlan(planJson);
+					} catch (Exception e) {
+						return Mono.just(internalError("Failed to patch plan: " + e.getMessage()));
+					}
+					// Handle both direct plan data and full response format
+					ObjectNode patchData = patch.has("data") ? (ObjectNode) patch.get("data") : patch;
+
+					return retrying(() -> storedPlan(id)
+							.flatMap(stored -> {
+								if (stored.isEmpty()) {
+									return Mono.just(notFound("Plan not found"));
+								}
+								StoredPlan existing = stored.get();
+								if (!existing.getEtag().equals(ifMatch)) {
+									return Mono.just(preconditionFailed());
+								}
+
+								// Deep merge the data into a copy, the stored version is still needed for cleanup
+								ObjectNode mergedPlan = PlanTrees.deepMerge(existing.getData().deepCopy(), patchData);
+								String data;
+								try {
+									planValidator.validate(mergedPlan);
+									data = objectMapper.writeValueAsString(mergedPlan);
+								} catch (PlanValidationException ve) {
+									return Mono.just(validationError(ve));
+								} catch (Exception e) {
+									return Mono.just(internalError("Failed to patch plan: " + e.getMessage()));
+								}
+								String newEtag = DigestUtils.md5DigestAsHex(data.getBytes(StandardCharsets.UTF_8));
+
+								ObjectNode metadata = existing.getMetadata();
+								metadata.put("updated_by", authentication.getName());
+								metadata.put("updated_at", LocalDateTime.now().toString());
+								return planStorageService.savePlan(id, mergedPlan, data, metadata, newEtag, existing)
+										.filter(saved -> saved)
+										.map(saved -> ResponseEntity.ok()
+												.eTag(newEtag)
+												.body(new DataResponse(data)));
+							}));
+				})
+				.defaultIfEmpty(notFound("Plan not found"))
+				.onErrorResume(e -> Mono.just(internalError("Failed to patch plan: " + e.getMessage())));
+	}
+
+	// DELETE /api/v1/plans/{id} - Delete a plan, or a child object within its plan
+	@DeleteMapping("/{id}")
+	public Mono<ResponseEntity<?>> deletePlan(@PathVariable("id") String id) {
+		// Both deletes are compare-and-set writes, re-applied to what is stored after losing a race
+		return retrying(() -> storedPlan(id)
+				.flatMap(stored -> stored.isPresent()
+						? planStorageService.deletePlan(id, stored.get())
+								.filter(deleted -> deleted)
+								.map(deleted -> ResponseEntity.noContent().build())
+						// Not a top-level plan: the reverse index names the plan owning a child object
+						: deleteChild(id)))
+				.onErrorResume(e -> Mono.just(internalError("Failed to delete object: " + e.getMessage())));
+	}
+
+	private Mono<ResponseEntity<?>> deleteChild(String id) {
+		return planStorageService.findOwningPlan(id)
+				.flatMap(planKey -> storedPlan(planKey).flatMap(stored -> {
+							if (stored.isEmpty() || !PlanTrees.containsChildWithId(stored.get().getData(), id)) {
+								// A stale index entry: drop it and report the object missing
+								return planStorageService.removeChildEntry(id, planKey)
+										.then(Mono.just(notFound("Object not found")));
+							}
+							StoredPlan existing = stored.get();
+							ObjectNode planData = existing.getData().deepCopy();
+							PlanTrees.removeChildWithId(planData, id);
+
+							ObjectNode metadata = existing.getMetadata();
+							metadata.put("updated_by", "system");
+							metadata.put("updated_at", LocalDateTime.now().toString());
+
+							String data;
+							try {
+								data = objectMapper.writeValueAsString(planData);
+							} catch (Exception e) {
+								return Mono.error(e);
+							}
+							String newEtag = DigestUtils.md5DigestAsHex(data.getBytes(StandardCharsets.UTF_8));
+							return planStorageService.savePlan(planKey, planData, data, metadata, newEtag, existing)
+									.filter(saved -> saved)
+									.map(saved -> ResponseEntity.noContent().build());
+						}))
+				.switchIfEmpty(Mono.defer(() -> planStorageService.findOwningPlan(id)
+						// Owned but the write lost a race: empty, so the delete is retried
+						.flatMap(planKey -> Mono.<ResponseEntity<?>>empty())
+						.switchIfEmpty(Mono.just(notFound("Object not found")))));
+	}
+
+	// POST /api/v1/plans/_admin/child-index/rebuild - Rebuild the child objectId -> plan index
+	@PostMapping("/_admin/child-index/rebuild")
+	public Mono<ResponseEntity<?>> rebuildChildIndex() {
+		// A full scan of the keyspace; it runs off the event loop
+		return Mono.fromCallable(blockingPlanStorageService::rebuildChildIndex)
+				.subscribeOn(Schedulers.boundedElastic())
+				.<ResponseEntity<?>>map(plans -> ResponseEntity.ok(Map.of("indexedPlans", plans)))
+				.onErrorResume(e -> Mono.just(internalError("Failed to rebuild child index: " + e.getMessage())));
+	}
+
+	// POST /api/v1/plans/_admin/reindex - Rebuild the search index from Redis in the background
+	@PostMapping("/_admin/reindex")
+	public Mono<ResponseEntity<?>> startReindex(@RequestParam(defaultValue = "false") boolean restart) {
+		return Mono.fromCallable(() -> planReindexService.startReindex(restart))
+				.subscribeOn(Schedulers.boundedElastic())
+				.<ResponseEntity<?>>map(status -> ResponseEntity.accepted().body(status))
+				.onErrorResume(IllegalStateException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.CONFLICT)
+						.body(new ErrorResponse(e.getMessage(), "REINDEX_RUNNING"))))
+				.onErrorResume(e -> Mono.just(internalError("Failed to start reindex: " + e.getMessage())));
+	}
+
+	// GET /api/v1/plans/_admin/reindex - Progress, throughput and ETA of the current or last reindex
+	@GetMapping("/_admin/reindex")
+	public Mono<ResponseEntity<?>> getReindexStatus() {
+		return Mono.fromCallable(planReindexService::status)
+				.subscribeOn(Schedulers.boundedElastic())
+				.<ResponseEntity<?>>map(ResponseEntity::ok)
+				.onErrorResume(e -> Mono.just(internalError("Failed to read reindex status: " + e.getMessage())));
+	}
+
+	// GET /api/v1/plans/search - One page of the plans matching every given parameter
+	@GetMapping("/search")
+	public Mono<ResponseEntity<?>> searchPlans(
+			@RequestParam(required = false) String org,
+			@RequestParam(required = false) String planType,
+			@RequestParam(required = false) String serviceId,
+			@RequestParam(required = false) List<String> fields,
+			@RequestParam(required = false) Integer size,
+			@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Boolean trackTotalHits) {
+		if (org == null && planType == null && serviceId == null) {
+			return Mono.just(ResponseEntity.badRequest()
+					.body(new ErrorResponse("At least one search parameter is required", "INVALID_SEARCH")));
+		}
+		ElasticsearchService.PlanSearch search = new ElasticsearchService.PlanSearch(
+				new PlanFilter(org, planType, serviceId, null, null, null, null), fields, size, cursor, trackTotalHits);
+		return search(search);
+	}
+
+	// POST /api/v1/plans/_search - One page of the plans matching a structured filter
+	@PostMapping("/_search")
+	public Mono<ResponseEntity<?>> searchPlansByFilter(
+			@RequestBody(required = false) ElasticsearchService.PlanSearch search) {
+		ElasticsearchService.PlanSearch request = search != null
+				? search
+				: new ElasticsearchService.PlanSearch(null, null, null, null, null);
+		try {
+			PlanFilterQueries.check(request.filter());
+		} catch (IllegalArgumentException e) {
+			return Mono.just(ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage(), "INVALID_FILTER")));
+		}
+		return search(request);
+	}
+
+	private Mono<ResponseEntity<?>> search(ElasticsearchService.PlanSearch search) {
+		String cursor = search.cursor();
+		return Mono.fromFuture(() -> planSearchCacheService.search(search))
+				.<ResponseEntity<?>>map(ResponseEntity::ok)
+				.onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest()
+						.body(new ErrorResponse(e.getMessage(), "INVALID_CURSOR"))))
+				.onErrorResume(e -> cursor != null && ElasticsearchService.isExpiredSearch(e),
+						e -> Mono.just(ResponseEntity.status(HttpStatus.GONE)
+								.body(new ErrorResponse("Search cursor expired, start the search again", "CURSOR_EXPIRED"))))
+				.onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+						.body(new ErrorResponse("Search failed", "SEARCH_ERROR"))));
+	}
+
+	// GET /api/v1/plans/_stats - Copay and deductible statistics of the matching plans' cost shares,
+	// per org or plan type with groupBy=org|planType, and the plans created per interval
+	@GetMapping("/_stats")
+	public Mono<ResponseEntity<?>> planStats(
+			@RequestParam(required = false) String groupBy,
+			@RequestParam(required = false) String org,
+			@RequestParam(required = false) String planType,
+			@RequestParam(required = false) String interval,
+			@RequestParam(required = false) Integer size) {
+		PlanStatsService.PlanStatsQuery stats = new PlanStatsService.PlanStatsQuery(
+				new PlanFilter(org, planType, null, null, null, null, null), groupBy, interval, size);
+		return Mono.fromFuture(() -> planStatsService.stats(stats))
+				.<ResponseEntity<?>>map(ResponseEntity::ok)
+				.onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest()
+						.body(new ErrorResponse(e.getMessage(), "INVALID_STATS"))))
+				.onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+						.body(new ErrorResponse("Failed to compute plan statistics", "STATS_ERROR"))));
+	}
+}
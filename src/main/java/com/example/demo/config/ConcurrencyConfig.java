@@ -0,0 +1,31 @@
+package com.example.demo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class ConcurrencyConfig {
+
+    // Runs the independent blocking steps of one request side by side. With virtual threads
+    // enabled every step gets its own virtual thread; otherwise a bounded platform pool keeps
+    // fan-out from multiplying the thread count under load.
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService fanOutExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${plan.fan-out.platform-threads:32}") int platformThreads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fan-out-", 0).factory());
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, runnable -> {
+            Thread thread = new Thread(runnable, "fan-out-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -1,57 +1,332 @@
 package com.example.demo.config;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.indices.ExistsRequest;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpUtils;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.example.demo.service.PlanIndexLayout;
+import com.example.demo.service.PlanReindexService;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.DependsOn;
+import org.springframework.util.DigestUtils;
 
-import jakarta.annotation.PostConstruct;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+// Readers and writers use the "plans" alias; the documents live in a physical index named after
+// a fingerprint of its mapping, e.g. plans-3f9a0c2b71de. Startup only creates an index when the
+// mapping changed, and then rebuilds it from Redis with PlanReindexService while the alias stays
+// on the previous index. The outbox relay is paused for the rebuild, and once it completes the
+// alias moves in one atomic _aliases call and the changes written meanwhile are replayed into
+// the new index, so searches see either the old or the complete new index. A "plans" index
+// left by earlier versions is migrated the same way. This runs in the background and is
+// checked again until the alias points at the new index; until an alias exists, the planIndex
+// health indicator, part of the readiness group, reports OUT_OF_SERVICE.
+//
+// An index that lost the alias to a newer mapping is marked superseded_by in its _meta, so a
+// replica still running the older mapping leaves the alias alone. To roll back a mapping, delete
+// the older index first; it is then rebuilt again.
+//
+// The mapping follows elasticsearch.index.layout, which its _meta records, and the rebuild
+// writes the documents of the new index in its layout.
 @Configuration
-@DependsOn("elasticsearchClient")
 public class ElasticsearchIndexConfig {
 
-        @Autowired
-        private ElasticsearchClient elasticsearchClient;
-
-        @PostConstruct
-        public void setupIndex() throws IOException {
-                String indexName = "plans";
-
-                // Check if index exists
-                boolean indexExists = elasticsearchClient.indices()
-                                .exists(ExistsRequest.of(e -> e.index(indexName)))
-                                .value();
-
-                // Delete existing index if it exists
-                if (indexExists) {
-                        elasticsearchClient.indices().delete(d -> d.index(indexName));
-                }
-
-                Map<String, List<String>> relations = new HashMap<>();
-                relations.put("plan", List.of("linkedPlanService", "plancostShare"));
-                relations.put("linkedPlanService", List.of("linkedService", "serviceCostShare"));
-
-                // Create index with the join field mapping
-                elasticsearchClient.indices().create(c -> c
-                                .index(indexName)
-                                .mappings(m -> m
-                                                .properties("plan_service_relation", p -> p
-                                                                .join(j -> j
-                                                                                .relations(relations)))
-                                                .properties("objectId", p -> p.keyword(k -> k))
-                                                .properties("objectType", p -> p.keyword(k -> k))
-                                                .properties("_org", p -> p.text(t -> t))
-                                                .properties("planType", p -> p.keyword(k -> k))
-                                                .properties("deductible", p -> p.integer(i -> i))
-                                                .properties("copay", p -> p.integer(i -> i))
-                                                .properties("serviceId", p -> p.keyword(k -> k))
-                                                .properties("name", p -> p.text(t -> t))
-                                                .properties("creationDate", p -> p.date(d -> d.format("yyyy-MM-dd")))));
-        }
-}
\ No newline at end of file
+    public static final String ALIAS = "plans";
+
+    private static final Logger logger = LoggerFactory.getLogger(ElasticsearchIndexConfig.class);
+    private static final String SUPERSEDED_BY = "superseded_by";
+    private static final String LAYOUT = "layout";
+
+    private final ElasticsearchClient elasticsearchClient;
+    private final ObjectProvider<PlanReindexService> planReindexService;
+    private final PlanIndexLayout layout;
+    private final TypeMapping mapping;
+    private final String indexName;
+    private final CompletableFuture<String> ready = new CompletableFuture<>();
+    private final ScheduledExecutorService bootstrap = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "plan-index-bootstrap");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${elasticsearch.index.bootstrap-retry-interval:5s}")
+    private Duration retryInterval;
+
+    @Autowired
+    public ElasticsearchIndexConfig(ElasticsearchClient elasticsearchClient,
+            ObjectProvider<PlanReindexService> planReindexService,
+            @Value("${elasticsearch.index.layout:join}") String layout) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.planReindexService = planReindexService;
+        this.layout = PlanIndexLayout.of(layout);
+        this.mapping = mapping(this.layout);
+        this.indexName = ALIAS + "-" + fingerprint(mapping);
+    }
+
+    @PostConstruct
+    public void start() {
+        bootstrap.execute(this::bootstrap);
+    }
+
+    @PreDestroy
+    public void stop() {
+        bootstrap.shutdownNow();
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    // The layout documents are built in, by the indexer and by every writer's outbox entries
+    @Bean
+    public PlanIndexLayout planIndexLayout() {
+        return layout;
+    }
+
+    public boolean isReady() {
+        return ready.isDone();
+    }
+
+    // Blocks writers until the alias exists, so a write never auto-creates a "plans" index
+    public void awaitReady(Duration timeout) {
+        try {
+            ready.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Index " + ALIAS + " is not ready yet");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for index " + ALIAS, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Index " + ALIAS + " failed to start: " + e.getMessage(), e);
+        }
+    }
+
+    @Bean
+    public HealthIndicator planIndexHealthIndicator() {
+        return () -> (isReady() ? Health.up() : Health.outOfService())
+                .withDetail("alias", ALIAS)
+                .withDetail("index", indexName)
+                .withDetail("layout", layout.jsonValue())
+                .build();
+    }
+
+    private void bootstrap() {
+        try {
+            List<String> aliased = aliasedIndices();
+            if (aliased.equals(List.of(indexName))) {
+                markReady("Index {} is current behind alias {}");
+                return;
+            }
+            boolean legacy = aliased.isEmpty() && elasticsearchClient.indices().exists(e -> e.index(ALIAS)).value();
+            if (!aliased.isEmpty() && isSuperseded()) {
+                logger.warn("Index {} was superseded by {}, leaving alias {} on it", indexName, aliased, ALIAS);
+                markReady("Index {} serves alias {} with an older mapping");
+                return;
+            }
+
+            createIndex();
+            if (aliased.isEmpty() && !legacy) {
+                swap(indexName, aliased, false);
+                markReady("Index {} now serves alias {}");
+                return;
+            }
+            if (!aliased.isEmpty()) {
+                // The previous index keeps serving reads and writes until the rebuild moves the alias
+                markReady("Index {} is rebuilt from Redis while alias {} stays on " + aliased);
+            }
+            rebuild();
+        } catch (Exception e) {
+            logger.warn("Failed to set up index {} behind alias {}, retrying in {}: {}",
+                    indexName, ALIAS, retryInterval, e.getMessage());
+        }
+        bootstrap.schedule(this::bootstrap, retryInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Makes sure a reindex from Redis is filling the new index. A job already running for
+    // another target, such as an admin reindex, is left to finish first.
+    private void rebuild() {
+        PlanReindexService reindex = planReindexService.getObject();
+        ObjectNode status = reindex.status();
+        if (indexName.equals(status.path("index").asText()) && "running".equals(status.path("status").asText())) {
+            return;
+        }
+        try {
+            reindex.startRebuild(indexName, layout);
+            logger.info("Rebuilding {} from Redis, alias {} moves to it once that completes", indexName, ALIAS);
+        } catch (IllegalStateException e) {
+            logger.info("Waiting for the running reindex to finish before rebuilding {}: {}", indexName, e.getMessage());
+        }
+    }
+
+    // Moves the alias to index once a rebuild filled it and marks the indices it leaves as
+    // superseded. Called by the rebuild, possibly on a replica that took it over.
+    public synchronized void promote(String index) throws IOException {
+        List<String> aliased = new ArrayList<>(aliasedIndices());
+        aliased.remove(index);
+        boolean legacy = aliased.isEmpty() && elasticsearchClient.indices().exists(e -> e.index(ALIAS)).value();
+        Map<String, PlanIndexLayout> layouts = new LinkedHashMap<>();
+        for (String previous : aliased) {
+            layouts.put(previous, layoutOf(previous));
+        }
+        swap(index, aliased, legacy);
+        for (Map.Entry<String, PlanIndexLayout> previous : layouts.entrySet()) {
+            // _meta is replaced as a whole, so the layout is written again
+            elasticsearchClient.indices().putMapping(p -> p
+                    .index(previous.getKey())
+                    .meta(SUPERSEDED_BY, JsonData.of(index))
+                    .meta(LAYOUT, JsonData.of(previous.getValue().jsonValue())));
+            logger.info("Index {} is no longer in use and can be deleted", previous.getKey());
+        }
+        logger.info("Index {} now serves alias {}", index, ALIAS);
+        if (index.equals(indexName)) {
+            ready.complete(indexName);
+        }
+    }
+
+    private void markReady(String message) {
+        if (ready.complete(indexName)) {
+            logger.info(message, indexName, ALIAS);
+        }
+    }
+
+    private List<String> aliasedIndices() throws IOException {
+        if (!elasticsearchClient.indices().existsAlias(e -> e.name(ALIAS)).value()) {
+            return List.of();
+        }
+        return new ArrayList<>(elasticsearchClient.indices().getAlias(g -> g.name(ALIAS)).result().keySet());
+    }
+
+    private boolean isSuperseded() throws IOException {
+        if (!elasticsearchClient.indices().exists(e -> e.index(indexName)).value()) {
+            return false;
+        }
+        TypeMapping current = elasticsearchClient.indices().getMapping(g -> g.index(indexName)).get(indexName).mappings();
+        return current.meta().containsKey(SUPERSEDED_BY);
+    }
+
+    // Indices created before the layout was configurable carry none and are joins
+    private PlanIndexLayout layoutOf(String index) throws IOException {
+        TypeMapping current = elasticsearchClient.indices().getMapping(g -> g.index(index)).result()
+                .values().iterator().next().mappings();
+        JsonData recorded = current.meta().get(LAYOUT);
+        return recorded != null ? PlanIndexLayout.of(recorded.to(String.class)) : PlanIndexLayout.JOIN;
+    }
+
+    private void createIndex() throws IOException {
+        try {
+            elasticsearchClient.indices().create(c -> c.index(indexName).mappings(mapping));
+            logger.info("Created index {}", indexName);
+        } catch (ElasticsearchException e) {
+            // Another replica with the same mapping got there first
+            if (!"resource_already_exists_exception".equals(e.error().type())) {
+                throw e;
+            }
+        }
+    }
+
+    // Points the alias at index and away from the previous one in a single request. A legacy
+    // "plans" index has to go in the same request, since an alias cannot share its name.
+    private void swap(String index, List<String> aliased, boolean legacy) throws IOException {
+        elasticsearchClient.indices().updateAliases(u -> {
+            if (legacy) {
+                u.actions(a -> a.removeIndex(r -> r.index(ALIAS)));
+            }
+            for (String previous : aliased) {
+                u.actions(a -> a.remove(r -> r.index(previous).alias(ALIAS)));
+            }
+            return u.actions(a -> a.add(add -> add.index(index).alias(ALIAS)));
+        });
+    }
+
+    public static TypeMapping mapping(PlanIndexLayout layout) {
+        return switch (layout) {
+            case JOIN -> joinMapping();
+            case NESTED -> nestedMapping();
+        };
+    }
+
+    private static TypeMapping joinMapping() {
+        Map<String, List<String>> relations = new LinkedHashMap<>();
+        relations.put("plan", List.of("linkedPlanService", "plancostShare"));
+        relations.put("linkedPlanService", List.of("linkedService", "serviceCostShare"));
+
+        return TypeMapping.of(m -> m
+                .meta(LAYOUT, JsonData.of(PlanIndexLayout.JOIN.jsonValue()))
+                .properties("plan_service_relation", p -> p.join(j -> j.relations(relations)))
+                .properties("objectId", p -> p.keyword(k -> k))
+                .properties("planId", p -> p.keyword(k -> k))
+                .properties("objectType", p -> p.keyword(k -> k))
+                // The keyword subfield groups _stats by org
+                .properties("_org", p -> p.text(t -> t.fields("keyword", f -> f.keyword(k -> k.ignoreAbove(256)))))
+                .properties("planType", p -> p.keyword(k -> k))
+                .properties("deductible", p -> p.integer(i -> i))
+                .properties("copay", p -> p.integer(i -> i))
+                .properties("serviceId", p -> p.keyword(k -> k))
+                .properties("name", p -> p.text(t -> t))
+                .properties("creationDate", p -> p.date(d -> d.format("yyyy-MM-dd"))));
+    }
+
+    // linkedPlanServices is nested so that a query on a service's cost share matches copay and
+    // deductible of the same service; each service has one linked service and one cost share,
+    // which stay plain objects within it
+    private static TypeMapping nestedMapping() {
+        Map<String, Property> costShare = new LinkedHashMap<>(objectProperties());
+        costShare.put("deductible", Property.of(p -> p.integer(i -> i)));
+        costShare.put("copay", Property.of(p -> p.integer(i -> i)));
+        Map<String, Property> linkedService = new LinkedHashMap<>(objectProperties());
+        linkedService.put("name", Property.of(p -> p.text(t -> t)));
+        Map<String, Property> service = new LinkedHashMap<>(objectProperties());
+        service.put("linkedService", Property.of(p -> p.object(o -> o.properties(linkedService))));
+        service.put("planserviceCostShares", Property.of(p -> p.object(o -> o.properties(costShare))));
+
+        return TypeMapping.of(m -> m
+                .meta(LAYOUT, JsonData.of(PlanIndexLayout.NESTED.jsonValue()))
+                .properties("objectId", p -> p.keyword(k -> k))
+                .properties("planId", p -> p.keyword(k -> k))
+                .properties("objectType", p -> p.keyword(k -> k))
+                .properties("_org", p -> p.text(t -> t.fields("keyword", f -> f.keyword(k -> k.ignoreAbove(256)))))
+                .properties("planType", p -> p.keyword(k -> k))
+                .properties("creationDate", p -> p.date(d -> d.format("yyyy-MM-dd")))
+                .properties("planCostShares", p -> p.object(o -> o.properties(costShare)))
+                .properties("linkedPlanServices", p -> p.nested(n -> n.properties(service))));
+    }
+
+    private static Map<String, Property> objectProperties() {
+        Map<String, Property> properties = new LinkedHashMap<>();
+        properties.put("objectId", Property.of(p -> p.keyword(k -> k)));
+        properties.put("objectType", Property.of(p -> p.keyword(k -> k)));
+        properties.put("_org", Property.of(p -> p.text(t -> t)));
+        return properties;
+    }
+
+    // Changes whenever the mapping does; the same mapping always serializes to the same JSON
+    static String fingerprint(TypeMapping mapping) {
+        String json = JsonpUtils.toJsonString(mapping, new JacksonJsonpMapper());
+        return DigestUtils.md5DigestAsHex(json.getBytes(StandardCharsets.UTF_8)).substring(0, 12);
+    }
+}
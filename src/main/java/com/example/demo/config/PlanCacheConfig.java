@@ -0,0 +1,23 @@
+package com.example.demo.config;
+
+import com.example.demo.service.PlanCacheService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+@Configuration
+public class PlanCacheConfig {
+
+    // Subscribes every replica to the plan invalidation channel
+    @Bean
+    public RedisMessageListenerContainer planCacheListenerContainer(
+            RedisConnectionFactory connectionFactory,
+            PlanCacheService planCacheService) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(planCacheService, new ChannelTopic(PlanCacheService.INVALIDATION_CHANNEL));
+        return container;
+    }
+}
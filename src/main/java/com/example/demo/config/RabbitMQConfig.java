@@ -1,11 +1,13 @@
 package com.example.demo.config;
 
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -21,6 +23,12 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.routing.plan}")
     private String planRoutingKey;
 
+    @Value("${rabbitmq.listener.batch.size:100}")
+    private int batchSize;
+
+    @Value("${rabbitmq.listener.batch.receive-timeout-ms:500}")
+    private long batchReceiveTimeout;
+
     @Bean
     public Queue planQueue() {
         return QueueBuilder.durable(planQueue)
@@ -63,6 +71,22 @@ public class RabbitMQConfig {
         return new Jackson2JsonMessageConverter();
     }
 
+    // Listener container for the batching consumer; inherits the spring.rabbitmq.listener.simple
+    // settings (retry, ack mode) and acks each delivered batch as a whole
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(batchReceiveTimeout);
+        factory.setPrefetchCount(batchSize);
+        return factory;
+    }
+
     @Bean
     public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
         RabbitTemplate template = new RabbitTemplate(connectionFactory);
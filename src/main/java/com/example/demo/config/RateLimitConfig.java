@@ -16,12 +16,20 @@ public class RateLimitConfig {
     @Value("${rate.limit.max-requests:100}")
     private int rateLimitMaxRequests;
 
+    @Value("${rate.limit.lease-size:10}")
+    private int rateLimitLeaseSize;
+
+    @Value("${rate.limit.lease-ttl-ms:1000}")
+    private long rateLimitLeaseTtlMs;
+
     @Bean
     public RedisTemplate<String, String> redisTemplate(RedisConnectionFactory connectionFactory) {
         RedisTemplate<String, String> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
         template.setKeySerializer(new StringRedisSerializer());
         template.setValueSerializer(new StringRedisSerializer());
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(new StringRedisSerializer());
         return template;
     }
 
@@ -32,4 +40,12 @@ public class RateLimitConfig {
     public int getRateLimitMaxRequests() {
         return rateLimitMaxRequests;
     }
+
+    public int getRateLimitLeaseSize() {
+        return rateLimitLeaseSize;
+    }
+
+    public long getRateLimitLeaseTtlMs() {
+        return rateLimitLeaseTtlMs;
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.example.demo.config;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.example.demo.security.JwtTokenVerifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.AuthenticationWebFilter;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+
+// Bearer token authentication for spring.main.web-application-type=reactive, with the same
+// rules and 401 responses as SecurityConfig and JwtAuthenticationFilter
+@Configuration
+@EnableWebFluxSecurity
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveSecurityConfig {
+
+    // Tokens seen before are answered from the verifier's cache on the event loop; only new
+    // tokens, whose verification may fetch the issuer's keys, move to the bounded elastic scheduler
+    @Bean
+    public ReactiveAuthenticationManager jwtAuthenticationManager(JwtTokenVerifier jwtTokenVerifier) {
+        return authentication -> {
+            String token = (String) authentication.getCredentials();
+            String cached = jwtTokenVerifier.cachedSubject(token);
+            Mono<String> subject = cached != null
+                    ? Mono.just(cached)
+                    : Mono.fromCallable(() -> jwtTokenVerifier.authenticate(token))
+                            .subscribeOn(Schedulers.boundedElastic());
+            return subject
+                    .<Authentication>map(name -> new UsernamePasswordAuthenticationToken(name, null, AuthorityUtils.NO_AUTHORITIES))
+                    .onErrorMap(JWTVerificationException.class,
+                            e -> new BadCredentialsException("Invalid token: " + e.getMessage(), e))
+                    .onErrorMap(e -> !(e instanceof BadCredentialsException),
+                            e -> new BadCredentialsException("Token processing error: " + e.getMessage(), e));
+        };
+    }
+
+    @Bean
+    public SecurityWebFilterChain reactiveFilterChain(ServerHttpSecurity http,
+            ReactiveAuthenticationManager jwtAuthenticationManager) {
+        AuthenticationWebFilter jwtFilter = new AuthenticationWebFilter(jwtAuthenticationManager);
+        jwtFilter.setServerAuthenticationConverter(exchange -> {
+            String authHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                return Mono.empty();
+            }
+            String token = authHeader.substring(7);
+            return Mono.just(new UsernamePasswordAuthenticationToken(token, token));
+        });
+        jwtFilter.setAuthenticationFailureHandler((webFilterExchange, e) ->
+                unauthorized(webFilterExchange.getExchange().getResponse(), e.getMessage()));
+        jwtFilter.setSecurityContextRepository(NoOpServerSecurityContextRepository.getInstance());
+
+        return http
+                .csrf(ServerHttpSecurity.CsrfSpec::disable)
+                .httpBasic(ServerHttpSecurity.HttpBasicSpec::disable)
+                .formLogin(ServerHttpSecurity.FormLoginSpec::disable)
+                .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+                .authorizeExchange(exchanges -> exchanges
+                        .pathMatchers("/api/v1/plans/**").authenticated()
+                        .anyExchange().permitAll())
+                .exceptionHandling(exceptions -> exceptions
+                        .authenticationEntryPoint((exchange, e) ->
+                                unauthorized(exchange.getResponse(), "No valid authorization header")))
+                .addFilterAt(jwtFilter, SecurityWebFiltersOrder.AUTHENTICATION)
+                .build();
+    }
+
+    private static Mono<Void> unauthorized(ServerHttpResponse response, String message) {
+        response.setStatusCode(HttpStatus.UNAUTHORIZED);
+        DataBuffer body = response.bufferFactory().wrap(message.getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
+    }
+}
@@ -1,46 +1,197 @@
 package com.example.demo.interceptor;
 
 import com.example.demo.config.RateLimitConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+// Token bucket rate limiting per client IP. The bucket lives in Redis and is updated by one
+// atomic script call. Each node takes a small lease of tokens from it at a time and admits
+// requests from the lease without going to Redis, so only one request in lease-size costs a
+// round trip. Every admitted request has been paid for from the shared bucket, so the global
+// limit holds across nodes. Tokens a lease did not spend within lease-ttl-ms go back to the
+// bucket, with the next take for the client or when its idle lease is evicted.
 @Component
 public class RateLimitInterceptor implements HandlerInterceptor {
 
-    @Autowired
-    private RedisTemplate<String, String> redisTemplate;
+    private static final String KEY_PREFIX = "rate_limit:bucket:";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RateLimitConfig rateLimitConfig;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> rateLimitScript;
+    private final Cache<String, Lease> leases;
 
     @Autowired
-    private RateLimitConfig rateLimitConfig;
+    public RateLimitInterceptor(RedisTemplate<String, String> redisTemplate, RateLimitConfig rateLimitConfig) {
+        this.redisTemplate = redisTemplate;
+        this.rateLimitConfig = rateLimitConfig;
+        @SuppressWarnings("rawtypes")
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("redis/rate-limit.lua")));
+        script.setResultType(List.class);
+        this.rateLimitScript = script;
+        // A lease is only useful for lease-ttl-ms, so idle clients drop out on their own and
+        // hand back what they did not spend
+        this.leases = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(Duration.ofMillis(Math.max(rateLimitConfig.getRateLimitLeaseTtlMs(), 1000)))
+                .removalListener((String clientIp, Lease lease, RemovalCause cause) -> {
+                    if (clientIp != null && lease != null && cause.wasEvicted()) {
+                        long unspent = lease.release();
+                        if (unspent > 0) {
+                            take(clientIp, unspent, 0);
+                        }
+                    }
+                })
+                .build();
+    }
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
-        String clientIp = request.getRemoteAddr();
-        String key = "rate_limit:" + clientIp;
-        
-        String currentCount = redisTemplate.opsForValue().get(key);
-        
-        if (currentCount == null) {
-            // First request in window
-            redisTemplate.opsForValue().set(key, "1", rateLimitConfig.getRateLimitWindow(), TimeUnit.SECONDS);
-            return true;
-        }
-        
-        int count = Integer.parseInt(currentCount);
-        if (count >= rateLimitConfig.getRateLimitMaxRequests()) {
+        long retryAfterMs = acquire(request.getRemoteAddr());
+        if (retryAfterMs > 0) {
             response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(TimeUnit.MILLISECONDS.toSeconds(retryAfterMs + 999)));
             response.getWriter().write("Too many requests. Please try again later.");
             return false;
         }
-        
-        redisTemplate.opsForValue().increment(key);
         return true;
     }
-} 
\ No newline at end of file
+
+    // Returns 0 when the client may make a request, otherwise the milliseconds until it may.
+    // Only goes to Redis when this node's lease for the client ran out.
+    public long acquire(String clientIp) {
+        return lease(clientIp).acquire(System.currentTimeMillis());
+    }
+
+    // acquire from this node's lease alone, without blocking: 0 or the milliseconds to wait as
+    // acquire returns them, or -1 when only a call to Redis can tell
+    public long tryAcquire(String clientIp) {
+        return lease(clientIp).tryAcquire(System.currentTimeMillis());
+    }
+
+    private Lease lease(String clientIp) {
+        return leases.get(clientIp, ip -> new Lease(
+                (returned, wanted) -> take(ip, returned, wanted),
+                Math.max(1, Math.min(rateLimitConfig.getRateLimitLeaseSize(), rateLimitConfig.getRateLimitMaxRequests())),
+                rateLimitConfig.getRateLimitLeaseTtlMs()));
+    }
+
+    private long[] take(String clientIp, long returned, int wanted) {
+        long windowMs = TimeUnit.SECONDS.toMillis(rateLimitConfig.getRateLimitWindow());
+        List<?> result = redisTemplate.execute(rateLimitScript, List.of(KEY_PREFIX + clientIp),
+                String.valueOf(rateLimitConfig.getRateLimitMaxRequests()),
+                String.valueOf(windowMs),
+                String.valueOf(wanted),
+                String.valueOf(returned));
+        return new long[] { ((Number) result.get(0)).longValue(), ((Number) result.get(1)).longValue() };
+    }
+
+    // One client's bucket in Redis
+    @FunctionalInterface
+    interface Bucket {
+        // Puts returned tokens back, up to the bucket's capacity, then takes up to wanted.
+        // Returns { tokens granted, milliseconds until the next token when none were granted }.
+        long[] take(long returned, int wanted);
+    }
+
+    // Tokens this node holds for one client. A ReentrantLock rather than synchronized, so a
+    // request waiting on the Redis call does not pin its carrier thread under virtual threads.
+    static final class Lease {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Bucket bucket;
+        private final int size;
+        private final long ttlMs;
+        private long tokens;
+        private long expiresAt;
+        // While the bucket is known to be empty, requests are turned away without asking Redis
+        private long deniedUntil;
+
+        Lease(Bucket bucket, int size, long ttlMs) {
+            this.bucket = bucket;
+            this.size = size;
+            this.ttlMs = ttlMs;
+        }
+
+        // Returns 0 when the request is admitted, otherwise the milliseconds to wait
+        long acquire(long now) {
+            lock.lock();
+            try {
+                long local = acquireLocally(now);
+                if (local >= 0) {
+                    return local;
+                }
+
+                // Whatever is left of an expired lease goes back with the same call
+                long[] result = bucket.take(tokens, size);
+                tokens = 0;
+                long granted = result[0];
+                if (granted == 0) {
+                    long waitMs = Math.max(1, result[1]);
+                    deniedUntil = now + waitMs;
+                    return waitMs;
+                }
+                tokens = granted - 1;
+                expiresAt = now + ttlMs;
+                return 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Like acquire, but returns -1 instead of taking from the bucket, also while another
+        // request holds the lock to do so
+        long tryAcquire(long now) {
+            if (!lock.tryLock()) {
+                return -1;
+            }
+            try {
+                return acquireLocally(now);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long acquireLocally(long now) {
+            if (tokens > 0 && now < expiresAt) {
+                tokens--;
+                return 0;
+            }
+            if (now < deniedUntil) {
+                return deniedUntil - now;
+            }
+            return -1;
+        }
+
+        // Gives up the lease and returns the number of tokens it did not spend
+        long release() {
+            lock.lock();
+            try {
+                long unspent = tokens;
+                tokens = 0;
+                return unspent;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
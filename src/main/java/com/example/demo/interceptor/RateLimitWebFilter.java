@@ -0,0 +1,64 @@
+package com.example.demo.interceptor;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// The reactive counterpart of registering RateLimitInterceptor for /api/v1/**. Requests the
+// node's lease decides are admitted or turned away on the calling thread. Only when the lease
+// runs out does the limiter wait on Redis, on the bounded elastic scheduler, and the chain then
+// continues on the parallel one rather than on a thread meant for blocking.
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class RateLimitWebFilter implements WebFilter {
+
+    @Autowired
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!exchange.getRequest().getPath().value().startsWith("/api/v1/")) {
+            return chain.filter(exchange);
+        }
+        InetSocketAddress remote = exchange.getRequest().getRemoteAddress();
+        String clientIp = remote != null && remote.getAddress() != null
+                ? remote.getAddress().getHostAddress()
+                : "unknown";
+
+        long local = rateLimitInterceptor.tryAcquire(clientIp);
+        if (local == 0) {
+            return chain.filter(exchange);
+        }
+        if (local > 0) {
+            return tooManyRequests(exchange.getResponse(), local);
+        }
+        return Mono.fromCallable(() -> rateLimitInterceptor.acquire(clientIp))
+                .subscribeOn(Schedulers.boundedElastic())
+                .publishOn(Schedulers.parallel())
+                .flatMap(retryAfterMs -> retryAfterMs > 0
+                        ? tooManyRequests(exchange.getResponse(), retryAfterMs)
+                        : chain.filter(exchange));
+    }
+
+    private Mono<Void> tooManyRequests(ServerHttpResponse response, long retryAfterMs) {
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+                String.valueOf(TimeUnit.MILLISECONDS.toSeconds(retryAfterMs + 999)));
+        DataBuffer body = response.bufferFactory()
+                .wrap("Too many requests. Please try again later.".getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
+    }
+}
@@ -1,19 +1,21 @@
 package com.example.demo.model;
 
-import java.util.Map;
+import com.fasterxml.jackson.annotation.JsonRawValue;
 
 public class DataResponse {
-    private Map<String, Object> data;
+    // Already serialized plan JSON, written into the response without another conversion
+    @JsonRawValue
+    private String data;
 
-    public DataResponse(Map<String, Object> data) {
+    public DataResponse(String data) {
         this.data = data;
     }
 
-    public Map<String, Object> getData() {
+    public String getData() {
         return data;
     }
 
-    public void setData(Map<String, Object> data) {
+    public void setData(String data) {
         this.data = data;
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -8,7 +8,7 @@ import org.springframework.data.elasticsearch.annotations.JoinTypeRelation;
 import org.springframework.data.elasticsearch.annotations.JoinTypeRelations;
 import org.springframework.data.elasticsearch.core.join.JoinField;
 
-@Document(indexName = "plans")
+@Document(indexName = "plans", createIndex = false)
 public class LinkedPlanServiceDocument {
     @Id
     private String objectId;
@@ -8,7 +8,7 @@ import org.springframework.data.elasticsearch.core.join.JoinField;
 
 import java.util.Map;
 
-@Document(indexName = "plans")
+@Document(indexName = "plans", createIndex = false)
 public class PlanChildDocument {
     @Id
     private String objectId;
@@ -11,7 +11,7 @@ import org.springframework.data.elasticsearch.core.join.JoinField;
 import java.time.LocalDate;
 import java.util.Map;
 
-@Document(indexName = "plans")
+@Document(indexName = "plans", createIndex = false)
 public class PlanDocument {
 
     @Id
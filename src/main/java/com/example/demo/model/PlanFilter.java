@@ -0,0 +1,29 @@
+package com.example.demo.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Criteria a plan must all match to be found by /search or /_search; absent criteria match any
+// plan. copay and deductible bound a cost share of the plan, either its own or that of one of its
+// services, and both must hold for the same cost share. serviceName matches a linked service's
+// name as a phrase.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PlanFilter(
+        String org,
+        String planType,
+        String serviceId,
+        String serviceName,
+        Range<String> creationDate,
+        Range<Integer> copay,
+        Range<Integer> deductible) {
+
+    // Bounds of a value, inclusive (gte, lte) or exclusive (gt, lt); dates are yyyy-MM-dd
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Range<T>(T gte, T gt, T lte, T lt) {
+
+        @JsonIgnore
+        public boolean isEmpty() {
+            return gte == null && gt == null && lte == null && lt == null;
+        }
+    }
+}
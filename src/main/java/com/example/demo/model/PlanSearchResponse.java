@@ -0,0 +1,68 @@
+package com.example.demo.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.List;
+
+// One page of /search results. cursor fetches the next page and is null on the last one;
+// total is left out when hit counting was turned off.
+public class PlanSearchResponse {
+    private List<ObjectNode> hits;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long total;
+
+    // "eq" when total is exact, "gte" when counting stopped at the tracking limit
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String totalRelation;
+
+    private String cursor;
+
+    // Also read back from the search cache
+    @JsonCreator
+    public PlanSearchResponse(
+            @JsonProperty("hits") List<ObjectNode> hits,
+            @JsonProperty("total") Long total,
+            @JsonProperty("totalRelation") String totalRelation,
+            @JsonProperty("cursor") String cursor) {
+        this.hits = hits;
+        this.total = total;
+        this.totalRelation = totalRelation;
+        this.cursor = cursor;
+    }
+
+    public List<ObjectNode> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<ObjectNode> hits) {
+        this.hits = hits;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public void setTotal(Long total) {
+        this.total = total;
+    }
+
+    public String getTotalRelation() {
+        return totalRelation;
+    }
+
+    public void setTotalRelation(String totalRelation) {
+        this.totalRelation = totalRelation;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.interfaces.RSAKeyProvider;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Public keys of the token issuer, read from its JWKS document and kept in memory. A background
+// thread re-reads the document every refresh interval; a token signed with a key id that is not
+// known yet triggers an early refresh, at most once per MIN_REFRESH_INTERVAL however many
+// requests carry it at the same time. The document is
+// read through the ResourceLoader, so google.jwks-uri may also be a file: or classpath: location.
+@Component
+public class JwksKeyProvider implements RSAKeyProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwksKeyProvider.class);
+    private static final Duration MIN_REFRESH_INTERVAL = Duration.ofSeconds(30);
+
+    private final ResourceLoader resourceLoader;
+    private final ObjectMapper objectMapper;
+    private final String jwksUri;
+    private final Duration refreshInterval;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jwks-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Replaced as a whole on every refresh, so readers never see a half-loaded key set
+    private volatile Map<String, RSAPublicKey> keys = Map.of();
+    private volatile long lastRefresh;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    @Autowired
+    public JwksKeyProvider(
+            ResourceLoader resourceLoader,
+            ObjectMapper objectMapper,
+            @Value("${google.jwks-uri:https://www.googleapis.com/oauth2/v3/certs}") String jwksUri,
+            @Value("${google.jwks-refresh-interval:1h}") Duration refreshInterval) {
+        this.resourceLoader = resourceLoader;
+        this.objectMapper = objectMapper;
+        this.jwksUri = jwksUri;
+        this.refreshInterval = refreshInterval;
+    }
+
+    @PostConstruct
+    public void start() {
+        refresh();
+        refresher.scheduleWithFixedDelay(this::refresh,
+                refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    @Override
+    public RSAPublicKey getPublicKeyById(String keyId) {
+        RSAPublicKey key = keys.get(keyId);
+        if (key != null || !refreshDue()) {
+            return key;
+        }
+        // The issuer may have rotated its keys since the last refresh. Requests that waited for
+        // the lock check again, so a burst of such tokens reads the document only once.
+        refreshLock.lock();
+        try {
+            key = keys.get(keyId);
+            if (key == null && refreshDue()) {
+                load();
+                key = keys.get(keyId);
+            }
+            return key;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private boolean refreshDue() {
+        return System.currentTimeMillis() - lastRefresh >= MIN_REFRESH_INTERVAL.toMillis();
+    }
+
+    @Override
+    public RSAPrivateKey getPrivateKey() {
+        return null;
+    }
+
+    @Override
+    public String getPrivateKeyId() {
+        return null;
+    }
+
+    // Keeps the previous keys when the document cannot be read, so an issuer outage does not
+    // lock out tokens signed with keys that are already known. A ReentrantLock rather than
+    // synchronized, so requests waiting on the download do not pin their carrier threads.
+    void refresh() {
+        refreshLock.lock();
+        try {
+            load();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    // Callers hold refreshLock
+    private void load() {
+        lastRefresh = System.currentTimeMillis();
+        try {
+            Resource resource = resourceLoader.getResource(jwksUri);
+            JsonNode jwks;
+            try (InputStream in = resource.getInputStream()) {
+                jwks = objectMapper.readTree(in);
+            }
+
+            Map<String, RSAPublicKey> loaded = new HashMap<>();
+            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+            for (JsonNode jwk : jwks.path("keys")) {
+                if (!"RSA".equals(jwk.path("kty").asText()) || !jwk.hasNonNull("kid")) {
+                    continue;
+                }
+                BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(jwk.required("n").asText()));
+                BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(jwk.required("e").asText()));
+                loaded.put(jwk.get("kid").asText(),
+                        (RSAPublicKey) keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+            }
+            keys = Map.copyOf(loaded);
+            logger.info("Loaded {} signing key(s) from {}", loaded.size(), jwksUri);
+        } catch (Exception e) {
+            logger.warn("Failed to refresh signing keys from {}: {}", jwksUri, e.getMessage());
+        }
+    }
+}
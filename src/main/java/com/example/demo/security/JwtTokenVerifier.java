@@ -0,0 +1,111 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+// Verifies bearer tokens for both the servlet and the reactive security setup
+@Component
+public class JwtTokenVerifier {
+
+    @Value("${google.client-id}")
+    private String clientId;
+
+    @Value("${google.issuer}")
+    private String issuer;
+
+    @Value("${security.token-cache.max-size:10000}")
+    private long tokenCacheMaxSize;
+
+    @Autowired
+    private JwksKeyProvider jwksKeyProvider;
+
+    private JWTVerifier verifier;
+
+    // Tokens whose signature, issuer, audience and expiry were already checked, keyed by the
+    // SHA-256 of the token and dropped when the token expires. Clients reuse one token for up
+    // to an hour, so after the first request a token costs a hash and a map lookup.
+    private Cache<String, VerifiedToken> verifiedTokens;
+
+    private record VerifiedToken(String subject, Instant expiresAt) {
+    }
+
+    @PostConstruct
+    public void init() {
+        verifier = JWT.require(Algorithm.RSA256(jwksKeyProvider))
+                .withIssuer(issuer)
+                .withAudience(clientId)
+                .build();
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(tokenCacheMaxSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String key, VerifiedToken token, long currentTime) {
+                        return Math.max(0, Duration.between(Instant.now(), token.expiresAt()).toNanos());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, VerifiedToken token, long currentTime,
+                            long currentDuration) {
+                        return expireAfterCreate(key, token, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, VerifiedToken token, long currentTime,
+                            long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    // Returns the subject of a token that was verified before, or null. Never blocks, so the
+    // reactive API can call it on an event loop thread.
+    public String cachedSubject(String token) {
+        VerifiedToken cached = verifiedTokens.getIfPresent(hash(token));
+        return cached != null ? cached.subject() : null;
+    }
+
+    // Returns the token subject, verifying the token only when it is not in the cache yet.
+    // Verification may fetch the issuer's keys, so it can block.
+    public String authenticate(String token) {
+        String key = hash(token);
+        VerifiedToken cached = verifiedTokens.getIfPresent(key);
+        if (cached != null) {
+            return cached.subject();
+        }
+
+        // Checks the RS256 signature against the issuer's published keys, then issuer, audience and expiry
+        DecodedJWT jwt = verifier.verify(token);
+
+        // Tokens without an expiry are verified on every request rather than cached forever
+        if (jwt.getExpiresAtAsInstant() != null) {
+            verifiedTokens.put(key, new VerifiedToken(jwt.getSubject(), jwt.getExpiresAtAsInstant()));
+        }
+        return jwt.getSubject();
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.everit.json.schema.ArraySchema;
+import org.everit.json.schema.FormatValidator;
+import org.everit.json.schema.NumberSchema;
+import org.everit.json.schema.ObjectSchema;
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.StringSchema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// A JSON schema turned into a tree of checks that run directly on Jackson nodes. It is built
+// from the schema as loaded by everit, so properties and required keys are checked in the
+// same order as everit checks them, and failures nest the same way, which keeps the messages
+// identical to ValidationException.getAllMessages(). A valid document allocates nothing.
+// Only the keywords the plan schema needs are supported; compile() rejects anything else.
+final class CompiledSchema {
+
+    private final Check root;
+
+    private CompiledSchema(Check root) {
+        this.root = root;
+    }
+
+    static CompiledSchema compile(Schema schema) {
+        return new CompiledSchema(compileCheck(schema));
+    }
+
+    // Returns the messages of every violation, or null when the document is valid
+    List<String> validate(JsonNode document) {
+        Violation violation = single(root.check(document));
+        if (violation == null) {
+            return null;
+        }
+        if (violation.causes.isEmpty()) {
+            return List.of(violation.message());
+        }
+        List<String> messages = new ArrayList<>();
+        collectMessages(violation.causes, messages);
+        return messages;
+    }
+
+    // Same order as everit: failures of this level first, then those nested in wrapped ones
+    private static void collectMessages(List<Violation> violations, List<String> messages) {
+        for (Violation violation : violations) {
+            if (violation.causes.isEmpty()) {
+                messages.add(violation.message());
+            }
+        }
+        for (Violation violation : violations) {
+            if (!violation.causes.isEmpty()) {
+                collectMessages(violation.causes, messages);
+            }
+        }
+    }
+
+    private static Check compileCheck(Schema schema) {
+        if (schema.hasDefaultValue() || schema.isNullable() != null
+                || schema.isReadOnly() != null || schema.isWriteOnly() != null) {
+            throw unsupported(schema);
+        }
+        if (schema instanceof ObjectSchema objectSchema) {
+            return compileObject(objectSchema);
+        } else if (schema instanceof ArraySchema arraySchema) {
+            return compileArray(arraySchema);
+        } else if (schema instanceof StringSchema stringSchema) {
+            return compileString(stringSchema);
+        } else if (schema instanceof NumberSchema numberSchema) {
+            return compileNumber(numberSchema);
+        }
+        throw unsupported(schema);
+    }
+
+    // getPatternProperties is deprecated for getRegexpPatternProperties; only its emptiness matters here
+    @SuppressWarnings("deprecation")
+    private static Check compileObject(ObjectSchema schema) {
+        if (schema.getPropertyNameSchema() != null || schema.getMinProperties() != null
+                || schema.getMaxProperties() != null || !schema.getPropertyDependencies().isEmpty()
+                || !schema.permitsAdditionalProperties() || schema.getSchemaOfAdditionalProperties() != null
+                || !schema.getPatternProperties().isEmpty() || !schema.getSchemaDependencies().isEmpty()) {
+            throw unsupported(schema);
+        }
+        String[] required = schema.getRequiredProperties().toArray(new String[0]);
+        String[] names = new String[schema.getPropertySchemas().size()];
+        Check[] checks = new Check[names.length];
+        int i = 0;
+        for (Map.Entry<String, Schema> property : schema.getPropertySchemas().entrySet()) {
+            names[i] = property.getKey();
+            checks[i++] = compileCheck(property.getValue());
+        }
+        boolean requiresObject = schema.requiresObject();
+
+        return value -> {
+            if (!value.isObject()) {
+                return requiresObject ? List.of(Violation.wrongType("JSONObject", value)) : null;
+            }
+            List<Violation> failures = null;
+            for (String name : required) {
+                if (!value.has(name)) {
+                    failures = add(failures, new Violation("#", "required key [" + name + "] not found"));
+                }
+            }
+            for (int p = 0; p < names.length; p++) {
+                JsonNode propertyValue = value.get(names[p]);
+                if (propertyValue != null) {
+                    Violation failure = single(checks[p].check(propertyValue));
+                    if (failure != null) {
+                        failures = add(failures, failure.prepend(names[p]));
+                    }
+                }
+            }
+            return failures;
+        };
+    }
+
+    private static Check compileArray(ArraySchema schema) {
+        if (schema.getMinItems() != null || schema.getMaxItems() != null || schema.needsUniqueItems()
+                || schema.getItemSchemas() != null || schema.getSchemaOfAdditionalItems() != null
+                || schema.getContainedItemSchema() != null) {
+            throw unsupported(schema);
+        }
+        Check items = schema.getAllItemSchema() != null ? compileCheck(schema.getAllItemSchema()) : null;
+        boolean requiresArray = schema.requiresArray();
+
+        return value -> {
+            if (!value.isArray()) {
+                return requiresArray ? List.of(Violation.wrongType("JSONArray", value)) : null;
+            }
+            if (items == null) {
+                return null;
+            }
+            List<Violation> failures = null;
+            for (int i = 0; i < value.size(); i++) {
+                Violation failure = single(items.check(value.get(i)));
+                if (failure != null) {
+                    failures = add(failures, failure.prepend(String.valueOf(i)));
+                }
+            }
+            return failures;
+        };
+    }
+
+    private static Check compileString(StringSchema schema) {
+        if (schema.getMinLength() != null || schema.getMaxLength() != null || schema.getPattern() != null) {
+            throw unsupported(schema);
+        }
+        FormatValidator format = schema.getFormatValidator();
+        boolean requiresString = schema.requireString();
+
+        return value -> {
+            if (!value.isTextual()) {
+                return requiresString ? List.of(Violation.wrongType("String", value)) : null;
+            }
+            Optional<String> failure = format.validate(value.textValue());
+            return failure.isPresent() ? List.of(new Violation("#", failure.get())) : null;
+        };
+    }
+
+    private static Check compileNumber(NumberSchema schema) {
+        if (schema.requiresInteger() || schema.getMinimum() != null || schema.getMaximum() != null
+                || schema.getMultipleOf() != null || schema.getExclusiveMinimumLimit() != null
+                || schema.getExclusiveMaximumLimit() != null) {
+            throw unsupported(schema);
+        }
+        boolean requiresNumber = schema.isRequiresNumber();
+
+        return value -> !value.isNumber() && requiresNumber ? List.of(Violation.wrongType("Number", value)) : null;
+    }
+
+    private static IllegalArgumentException unsupported(Schema schema) {
+        return new IllegalArgumentException("Schema keywords not supported by the compiled validator: " + schema);
+    }
+
+    private static List<Violation> add(List<Violation> failures, Violation failure) {
+        if (failures == null) {
+            failures = new ArrayList<>(2);
+        }
+        failures.add(failure);
+        return failures;
+    }
+
+    // everit reports a subschema's failures as is when there is one, and wrapped in a single
+    // failure at "#" when there are several
+    private static Violation single(List<Violation> failures) {
+        if (failures == null || failures.isEmpty()) {
+            return null;
+        }
+        return failures.size() == 1 ? failures.get(0) : new Violation("#", null, failures);
+    }
+
+    // Validates one value; returns null when it is valid
+    @FunctionalInterface
+    private interface Check {
+        List<Violation> check(JsonNode value);
+    }
+
+    private record Violation(String pointer, String description, List<Violation> causes) {
+
+        Violation(String pointer, String description) {
+            this(pointer, description, List.of());
+        }
+
+        // Type names are the Java classes org.json parses each JSON value into, as everit reports them
+        static Violation wrongType(String expected, JsonNode value) {
+            String found;
+            if (value.isTextual()) {
+                found = "String";
+            } else if (value.isObject()) {
+                found = "JSONObject";
+            } else if (value.isArray()) {
+                found = "JSONArray";
+            } else if (value.isBoolean()) {
+                found = "Boolean";
+            } else if (value.isInt()) {
+                found = "Integer";
+            } else if (value.isLong()) {
+                found = "Long";
+            } else if (value.isBigInteger()) {
+                found = "BigInteger";
+            } else if (value.isNumber()) {
+                found = "BigDecimal";
+            } else {
+                found = "Null";
+            }
+            return new Violation("#", "expected type: " + expected + ", found: " + found);
+        }
+
+        String message() {
+            return pointer + ": " + description;
+        }
+
+        // Mirrors ValidationException.prepend, including the escaping of the fragment
+        Violation prepend(String fragment) {
+            String escaped = fragment.replace("~", "~0")
+                    .replace("/", "~1")
+                    .replace("\\", "\\\\")
+                    .replace("\"", "\\\"");
+            List<Violation> prependedCauses = new ArrayList<>(causes.size());
+            for (Violation cause : causes) {
+                prependedCauses.add(cause.prepend(escaped));
+            }
+            return new Violation("#/" + escaped + pointer.substring(1), description, prependedCauses);
+        }
+    }
+}
@@ -1,27 +1,69 @@
 package com.example.demo.service;
 
+import com.example.demo.config.ElasticsearchIndexConfig;
 import com.example.demo.model.PlanDocument;
-import com.example.demo.model.LinkedPlanServiceDocument;
+import com.example.demo.model.PlanFilter;
 import com.example.demo.model.PlanChildDocument;
+import com.example.demo.model.PlanSearchResponse;
 import com.example.demo.repository.PlanElasticsearchRepository;
 import com.example.demo.repository.LinkedPlanServiceRepository;
 import com.example.demo.repository.PlanChildRepository;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.Refresh;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregationSource;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.TotalHits;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.elasticsearch.core.join.JoinField;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 @Service
 public class ElasticsearchService {
 
+    private static final Logger logger = LoggerFactory.getLogger(ElasticsearchService.class);
+
+    private static final String INDEX_NAME = ElasticsearchIndexConfig.ALIAS;
+    private static final long BULK_RETRY_BACKOFF_MS = 200;
+    // Source fields of a /search hit when the request names none: those of PlanDocument
+    private static final List<String> DEFAULT_SEARCH_FIELDS = List.of("objectType", "_org", "planType", "creationDate");
+
+    @Autowired
+    private ElasticsearchClient elasticsearchClient;
+
+    @Autowired
+    private ElasticsearchAsyncClient elasticsearchAsyncClient;
+
     @Autowired
     private PlanElasticsearchRepository planRepository;
 
@@ -31,101 +73,300 @@ public class ElasticsearchService {
     @Autowired
     private LinkedPlanServiceRepository linkedPlanServiceRepository;
 
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ElasticsearchIndexConfig elasticsearchIndexConfig;
+
+    @Autowired
+    private PlanIndexLayout indexLayout;
+
+    @Value("${plan.search.pit-keep-alive:1m}")
+    private String pitKeepAlive;
+
+    @Value("${plan.search.default-size:100}")
+    private int defaultSearchSize;
+
+    @Value("${plan.search.max-size:1000}")
+    private int maxSearchSize;
 
-    public void indexPlan(JSONObject planJson) {
+    @Value("${elasticsearch.bulk.max-retries:3}")
+    private int bulkMaxRetries;
+
+    // How long a write waits for the index bootstrap before failing (and being retried)
+    @Value("${elasticsearch.index.ready-timeout:30s}")
+    private Duration indexReadyTimeout;
+
+    public void indexPlan(JsonNode planJson) {
+        indexPlans(List.of(planJson));
+    }
+
+    public void indexPlans(List<JsonNode> plans) {
         try {
-            // 1. Create and save parent plan document
-            PlanDocument planDocument = new PlanDocument();
-            planDocument.setObjectId(planJson.getString("objectId"));
-            planDocument.setObjectType(planJson.getString("objectType"));
-            planDocument.set_org(planJson.getString("_org"));
-            planDocument.setPlanType(planJson.getString("planType"));
-
-            // Set the join field for parent - this is critical
-            planDocument.setPlanRelation(new JoinField<>("plan"));
-
-            // Parse the date string to LocalDate
-            String dateStr = planJson.getString("creationDate");
-            LocalDate creationDate = LocalDate.parse(dateStr, DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-            planDocument.setCreationDate(creationDate);
-
-            // Save the plan document
-            planRepository.save(planDocument);
-
-            // 2. Create and save plan cost shares as direct child of plan
-            JSONObject costShareJson = planJson.getJSONObject("planCostShares");
-            PlanChildDocument costShareDoc = new PlanChildDocument();
-            costShareDoc.setObjectId(costShareJson.getString("objectId"));
-            costShareDoc.setObjectType(costShareJson.getString("objectType"));
-            costShareDoc.set_org(costShareJson.getString("_org"));
-            costShareDoc.setDeductible(costShareJson.getInt("deductible"));
-            costShareDoc.setCopay(costShareJson.getInt("copay"));
-            costShareDoc.setRelation(new JoinField<>("plancostShare", planDocument.getObjectId()));
-            childRepository.save(costShareDoc);
-
-            // 3. Process linked plan services - now mid-level parents
-            JSONArray servicesArray = planJson.getJSONArray("linkedPlanServices");
-            for (int i = 0; i < servicesArray.length(); i++) {
-                JSONObject serviceJson = servicesArray.getJSONObject(i);
-                JSONObject linkedServiceJson = serviceJson.getJSONObject("linkedService");
-                JSONObject serviceCostSharesJson = serviceJson.getJSONObject("planserviceCostShares");
-
-                // 3a. Create and save linkedPlanService as child of plan but parent of other
-                // docs
-                LinkedPlanServiceDocument linkedPlanService = new LinkedPlanServiceDocument();
-                linkedPlanService.setObjectId(serviceJson.getString("objectId"));
-                linkedPlanService.setObjectType(serviceJson.getString("objectType"));
-                linkedPlanService.set_org(serviceJson.getString("_org"));
-
-                // Set relation as child of plan
-                linkedPlanService.setRelation(new JoinField<>("linkedPlanService", planDocument.getObjectId()));
-                linkedPlanServiceRepository.save(linkedPlanService);
-
-                // 3b. Create linked service as child of linkedPlanService
-                PlanChildDocument linkedService = new PlanChildDocument();
-                linkedService.setObjectId(linkedServiceJson.getString("objectId"));
-                linkedService.setObjectType(linkedServiceJson.getString("objectType"));
-                linkedService.set_org(linkedServiceJson.getString("_org"));
-                linkedService.setName(linkedServiceJson.getString("name"));
-
-                // Set relation as child of linkedPlanService
-                linkedService.setRelation(new JoinField<>("linkedService", linkedPlanService.getObjectId()));
-                childRepository.save(linkedService);
-
-                // 3c. Create service cost share as child of linkedPlanService
-                PlanChildDocument serviceCostShare = new PlanChildDocument();
-                serviceCostShare.setObjectId(serviceCostSharesJson.getString("objectId"));
-                serviceCostShare.setObjectType(serviceCostSharesJson.getString("objectType"));
-                serviceCostShare.set_org(serviceCostSharesJson.getString("_org"));
-                serviceCostShare.setDeductible(serviceCostSharesJson.getInt("deductible"));
-                serviceCostShare.setCopay(serviceCostSharesJson.getInt("copay"));
-                serviceCostShare.setServiceId(serviceJson.getString("objectId"));
-
-                // Set relation as child of linkedPlanService
-                serviceCostShare.setRelation(new JoinField<>("serviceCostShare", linkedPlanService.getObjectId()));
-                childRepository.save(serviceCostShare);
+            // Build every plan tree in memory and send them all as one routed _bulk request
+            List<BulkOperation> operations = new ArrayList<>();
+            for (JsonNode planJson : plans) {
+                String planId = planJson.required("objectId").asText();
+                PlanIndexDocuments.documents(indexLayout, planJson)
+                        .forEach((id, document) -> operations.add(indexOperation(INDEX_NAME, id, planId, document)));
+            }
+            if (!operations.isEmpty()) {
+                executeBulk(operations);
             }
         } catch (Exception e) {
             throw new RuntimeException("Failed to index plan: " + e.getMessage(), e);
         }
     }
 
-    public void deletePlan(String objectId) {
+    // Applies document changes as built by PlanIndexDocuments.changes in one _bulk request,
+    // touching only the documents a write actually changed
+    public void applyChanges(Collection<JsonNode> changes) {
+        try {
+            List<BulkOperation> operations = new ArrayList<>();
+            for (JsonNode change : changes) {
+                String id = change.required("id").asText();
+                String routing = change.required("routing").asText();
+                if (PlanIndexDocuments.DELETE.equals(change.required("action").asText())) {
+                    operations.add(BulkOperation.of(b -> b.delete(d -> d
+                            .index(INDEX_NAME)
+                            .id(id)
+                            .routing(routing))));
+                } else {
+                    operations.add(indexOperation(INDEX_NAME, id, routing, change.required("document")));
+                }
+            }
+            if (!operations.isEmpty()) {
+                executeBulk(operations);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to apply index changes: " + e.getMessage(), e);
+        }
+    }
+
+    // A document of the plans index with the id of the plan it is routed by
+    public record IndexDocument(String id, String routing, JsonNode document) {
+    }
+
+    // Indexes documents into index, the alias or a physical index being rebuilt, in one _bulk
+    // request without waiting for a refresh, for bulk loads that switch refreshing off and
+    // refresh the index themselves when they are done
+    public void indexDocuments(String index, List<IndexDocument> documents) {
+        try {
+            List<BulkOperation> operations = new ArrayList<>(documents.size());
+            for (IndexDocument document : documents) {
+                operations.add(indexOperation(index, document.id(), document.routing(), document.document()));
+            }
+            if (!operations.isEmpty()) {
+                executeBulk(operations, Refresh.False, INDEX_NAME.equals(index));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to index documents: " + e.getMessage(), e);
+        }
+    }
+
+    // Deletes documents from index by id and routing, which unlike delete_by_query also finds
+    // those not refreshed yet; a document that is already gone is skipped
+    public void deleteDocuments(String index, List<IndexDocument> documents) {
         try {
-            // Delete the plan document
-            planRepository.deleteById(objectId);
+            List<BulkOperation> operations = new ArrayList<>(documents.size());
+            for (IndexDocument document : documents) {
+                operations.add(BulkOperation.of(b -> b.delete(d -> d
+                        .index(index)
+                        .id(document.id())
+                        .routing(document.routing()))));
+            }
+            if (!operations.isEmpty()) {
+                executeBulk(operations, Refresh.False, INDEX_NAME.equals(index));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to delete documents: " + e.getMessage(), e);
+        }
+    }
+
+    private BulkOperation indexOperation(String index, String id, String routing, JsonNode document) {
+        return BulkOperation.of(b -> b.index(i -> i
+                .index(index)
+                .id(id)
+                .routing(routing)
+                .document(document)));
+    }
+
+    // Helper method to send a _bulk request and retry only the items that failed with a
+    // transient error, so documents that were already written are not sent again
+    private void executeBulk(List<BulkOperation> operations) throws IOException, InterruptedException {
+        executeBulk(operations, null, true);
+    }
+
+    // Writes through the alias wait for the index bootstrap; a rebuild writes to its physical
+    // index by name before any alias points at it
+    private void executeBulk(List<BulkOperation> operations, Refresh refresh, boolean alias)
+            throws IOException, InterruptedException {
+        if (alias) {
+            elasticsearchIndexConfig.awaitReady(indexReadyTimeout);
+        }
+        List<BulkOperation> pending = operations;
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            // Without a refresh policy, changes become searchable with the next periodic refresh
+            BulkRequest request = new BulkRequest.Builder().operations(pending).refresh(refresh)
+                    .requireAlias(alias).build();
+            BulkResponse response = elasticsearchClient.bulk(request);
+            if (!response.errors()) {
+                return;
+            }
 
-            // Delete all associated child documents
-            List<PlanChildDocument> children = childRepository.findChildrenByPlanId(objectId);
-            for (PlanChildDocument child : children) {
-                childRepository.deleteById(child.getObjectId());
+            List<BulkOperation> retryable = new ArrayList<>();
+            List<String> failures = new ArrayList<>();
+            List<BulkResponseItem> items = response.items();
+            for (int i = 0; i < items.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                if (item.error() == null) {
+                    continue;
+                }
+                String failure = item.id() + " (" + item.status() + "): " + item.error().reason();
+                if (isRetryable(item.status())) {
+                    retryable.add(pending.get(i));
+                } else {
+                    failures.add(failure);
+                }
             }
+
+            if (!failures.isEmpty()) {
+                throw new RuntimeException("Bulk indexing failed for " + failures.size() + " document(s): " + failures);
+            }
+            if (attempt >= bulkMaxRetries) {
+                throw new RuntimeException("Bulk indexing gave up after " + attempt + " attempts with "
+                        + retryable.size() + " document(s) still failing");
+            }
+
+            logger.warn("Retrying {} of {} bulk item(s), attempt {}", retryable.size(), pending.size(), attempt + 1);
+            Thread.sleep(BULK_RETRY_BACKOFF_MS * attempt);
+            pending = retryable;
+        }
+    }
+
+    private boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    public void deletePlan(String objectId) {
+        try {
+            elasticsearchIndexConfig.awaitReady(indexReadyTimeout);
+            // delete_by_query only finds refreshed documents, and the indexer may have written
+            // some of the plan's documents just before, in this batch or the previous one
+            elasticsearchClient.indices().refresh(r -> r.index(INDEX_NAME));
+            // Every document of the plan carries its id, whatever the layout
+            deleteByPlanIds(INDEX_NAME, List.of(objectId));
         } catch (Exception e) {
             throw new RuntimeException("Failed to delete plan: " + e.getMessage(), e);
         }
     }
 
+    // Index settings a bulk load changes: refresh interval and number of replicas
+    public record LoadSettings(String refreshInterval, String replicas) {
+    }
+
+    public LoadSettings getLoadSettings(String index) {
+        try {
+            IndexState state = elasticsearchClient.indices().getSettings(g -> g
+                    .index(index)
+                    .includeDefaults(true)).result().values().iterator().next();
+            String refreshInterval = setting(state, settings -> settings.refreshInterval() != null
+                    ? (settings.refreshInterval().isTime() ? settings.refreshInterval().time()
+                            : settings.refreshInterval().offset() + "ms")
+                    : null);
+            String replicas = setting(state, IndexSettings::numberOfReplicas);
+            return new LoadSettings(refreshInterval != null ? refreshInterval : "1s", replicas != null ? replicas : "1");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read index settings: " + e.getMessage(), e);
+        }
+    }
+
+    // Explicit settings win over defaults; either may be nested under "index"
+    private static String setting(IndexState state, Function<IndexSettings, String> read) {
+        for (IndexSettings settings : new IndexSettings[] { state.settings(), state.defaults() }) {
+            if (settings == null) {
+                continue;
+            }
+            String value = read.apply(settings);
+            if (value == null && settings.index() != null) {
+                value = read.apply(settings.index());
+            }
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    public void putLoadSettings(String index, LoadSettings settings) {
+        try {
+            elasticsearchClient.indices().putSettings(p -> p
+                    .index(index)
+                    .settings(s -> s
+                            .refreshInterval(t -> t.time(settings.refreshInterval()))
+                            .numberOfReplicas(settings.replicas())));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to update index settings: " + e.getMessage(), e);
+        }
+    }
+
+    public void refreshIndex(String index) {
+        try {
+            elasticsearchClient.indices().refresh(r -> r.index(index));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to refresh index: " + e.getMessage(), e);
+        }
+    }
+
+    // Up to size distinct plan ids in index, in order, after the given one (null for the first)
+    public List<String> indexedPlanIds(String index, String after, int size) {
+        List<Map<String, CompositeAggregationSource>> sources = List.of(Map.of(PlanIndexDocuments.PLAN_ID_FIELD,
+                CompositeAggregationSource.of(src -> src.terms(t -> t.field(PlanIndexDocuments.PLAN_ID_FIELD)))));
+        try {
+            SearchResponse<Void> response = elasticsearchClient.search(s -> s
+                    .index(index)
+                    .size(0)
+                    .aggregations("plans", a -> a.composite(c -> {
+                        c.size(size).sources(sources);
+                        if (after != null) {
+                            c.after(PlanIndexDocuments.PLAN_ID_FIELD, FieldValue.of(after));
+                        }
+                        return c;
+                    })), Void.class);
+            List<String> planIds = new ArrayList<>();
+            for (CompositeBucket bucket : response.aggregations().get("plans").composite().buckets().array()) {
+                planIds.add(bucket.key().get(PlanIndexDocuments.PLAN_ID_FIELD).stringValue());
+            }
+            return planIds;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list indexed plans: " + e.getMessage(), e);
+        }
+    }
+
+    // Deletes every document of the given plans from index
+    public long deletePlanDocuments(String index, Collection<String> planIds) {
+        try {
+            return deleteByPlanIds(index, planIds);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to delete plan documents: " + e.getMessage(), e);
+        }
+    }
+
+    private long deleteByPlanIds(String index, Collection<String> planIds) throws IOException {
+        List<FieldValue> values = planIds.stream().map(FieldValue::of).toList();
+        Long deleted = elasticsearchClient.deleteByQuery(d -> d
+                .index(index)
+                .conflicts(Conflicts.Proceed)
+                .query(q -> q.terms(t -> t
+                        .field(PlanIndexDocuments.PLAN_ID_FIELD)
+                        .terms(v -> v.value(values))))).deleted();
+        return deleted != null ? deleted : 0;
+    }
+
+    // The repository queries below assume the join layout, and those that are has_child or
+    // has_parent joins find nothing in the nested one; searchPlans serves either layout
     public List<PlanDocument> searchByOrganization(String org) {
         return planRepository.findBy_org(org);
     }
@@ -142,6 +383,151 @@ public class ElasticsearchService {
         return planRepository.findPlansByCostShareCopayGreaterThanEqual(copay);
     }
 
+    // One page of a search: the plans matching filter, with the source fields named in fields.
+    // size null means plan.search.default-size, and trackTotalHits null counts hits up to
+    // Elasticsearch's default limit. cursor, from the previous page, continues a search.
+    public record PlanSearch(PlanFilter filter, List<String> fields, Integer size, String cursor,
+            Boolean trackTotalHits) {
+    }
+
+    // Returns one page of plans, sorted by plan id. The first page is a plain search, so a
+    // client that never asks for more leaves nothing open behind. Its cursor only holds the
+    // search_after position; the second page opens a point in time from there, so every later
+    // page sees the same snapshot of the index however long the client takes between pages, and
+    // the cursor of each page carries it along. The point in time is closed once the last page
+    // was served. Completes on the HTTP client's I/O threads, so the reactive API can use it
+    // without blocking.
+    public CompletableFuture<PlanSearchResponse> searchPlans(PlanSearch search) {
+        SearchCursor cursor = search.cursor() != null ? SearchCursor.decode(objectMapper, search.cursor()) : null;
+        int size = search.size() != null ? Math.max(1, Math.min(maxSearchSize, search.size())) : defaultSearchSize;
+        List<String> fields = search.fields() != null && !search.fields().isEmpty()
+                ? search.fields()
+                : DEFAULT_SEARCH_FIELDS;
+
+        Query query = PlanFilterQueries.compile(indexLayout, search.filter());
+
+        CompletableFuture<String> pit = cursor == null
+                ? CompletableFuture.completedFuture(null)
+                : cursor.pit() != null
+                        ? CompletableFuture.completedFuture(cursor.pit())
+                        : elasticsearchAsyncClient.openPointInTime(o -> o
+                                .index(INDEX_NAME)
+                                .keepAlive(k -> k.time(pitKeepAlive)))
+                                .thenApply(response -> response.id());
+
+        return pit.thenCompose(pitId -> elasticsearchAsyncClient.search(s -> {
+                    if (pitId != null) {
+                        s.pit(p -> p.id(pitId).keepAlive(k -> k.time(pitKeepAlive)));
+                    } else {
+                        s.index(INDEX_NAME);
+                    }
+                    s.size(size)
+                            .query(query)
+                            .source(src -> src.filter(f -> f.includes(fields)))
+                            // Plan ids are unique, and the same order with or without a point in time
+                            .sort(so -> so.field(f -> f.field("objectId").order(SortOrder.Asc)));
+                    if (search.trackTotalHits() != null) {
+                        s.trackTotalHits(t -> t.enabled(search.trackTotalHits()));
+                    }
+                    if (cursor != null) {
+                        s.searchAfter(cursor.after());
+                    }
+                    return s;
+                }, ObjectNode.class))
+                .thenCompose(response -> {
+                    List<Hit<ObjectNode>> hits = response.hits().hits();
+                    List<ObjectNode> plans = new ArrayList<>(hits.size());
+                    for (Hit<ObjectNode> hit : hits) {
+                        ObjectNode plan = objectMapper.createObjectNode().put("objectId", hit.id());
+                        if (hit.source() != null) {
+                            plan.setAll(hit.source());
+                        }
+                        plans.add(plan);
+                    }
+                    TotalHits total = response.hits().total();
+                    Long totalValue = total != null ? total.value() : null;
+                    String totalRelation = total != null ? total.relation().jsonValue() : null;
+
+                    if (hits.size() < size) {
+                        if (response.pitId() == null) {
+                            return CompletableFuture.completedFuture(
+                                    new PlanSearchResponse(plans, totalValue, totalRelation, null));
+                        }
+                        return elasticsearchAsyncClient.closePointInTime(c -> c.id(response.pitId()))
+                                .handle((closed, e) -> new PlanSearchResponse(plans, totalValue, totalRelation, null));
+                    }
+                    String next = new SearchCursor(response.pitId(), hits.get(hits.size() - 1).sort())
+                            .encode(objectMapper);
+                    return CompletableFuture.completedFuture(
+                            new PlanSearchResponse(plans, totalValue, totalRelation, next));
+                });
+    }
+
+    // Whether a search failed because its point in time expired or was closed, i.e. the
+    // client waited longer than plan.search.pit-keep-alive between two pages
+    public static boolean isExpiredSearch(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ElasticsearchException es && es.status() == 404) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Position of the next page: the point in time, null after the first page, and the sort
+    // values of the last hit served
+    private record SearchCursor(String pit, List<FieldValue> after) {
+
+        String encode(ObjectMapper objectMapper) {
+            ObjectNode cursor = objectMapper.createObjectNode();
+            if (pit != null) {
+                cursor.put("pit", pit);
+            }
+            ArrayNode values = cursor.putArray("after");
+            for (FieldValue value : after) {
+                if (value.isLong()) {
+                    values.add(value.longValue());
+                } else if (value.isDouble()) {
+                    values.add(value.doubleValue());
+                } else if (value.isBoolean()) {
+                    values.add(value.booleanValue());
+                } else if (value.isString()) {
+                    values.add(value.stringValue());
+                } else {
+                    values.addNull();
+                }
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Throws IllegalArgumentException for anything encode did not produce
+        static SearchCursor decode(ObjectMapper objectMapper, String token) {
+            try {
+                JsonNode cursor = objectMapper.readTree(Base64.getUrlDecoder().decode(token));
+                if (!(cursor.path("pit").isTextual() || cursor.path("pit").isMissingNode()) || !cursor.path("after").isArray()) {
+                    throw new IllegalArgumentException("Invalid search cursor");
+                }
+                List<FieldValue> after = new ArrayList<>();
+                for (JsonNode value : cursor.get("after")) {
+                    if (value.isIntegralNumber()) {
+                        after.add(FieldValue.of(value.longValue()));
+                    } else if (value.isNumber()) {
+                        after.add(FieldValue.of(value.doubleValue()));
+                    } else if (value.isBoolean()) {
+                        after.add(FieldValue.of(value.booleanValue()));
+                    } else if (value.isTextual()) {
+                        after.add(FieldValue.of(value.textValue()));
+                    } else {
+                        after.add(FieldValue.NULL);
+                    }
+                }
+                return new SearchCursor(cursor.path("pit").textValue(), after);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid search cursor", e);
+            }
+        }
+    }
+
     public List<PlanChildDocument> searchChildrenByPlanId(String planId) {
         return childRepository.findChildrenByPlanId(planId);
     }
@@ -0,0 +1,20 @@
+package com.example.demo.service;
+
+// The serialized data of a plan, ready to be written to a response as is, with its ETag
+public class PlanBody {
+    private final byte[] data;
+    private final String etag;
+
+    public PlanBody(byte[] data, String etag) {
+        this.data = data;
+        this.etag = etag;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Creates or replaces plans from NDJSON, one plan per line, with the semantics of
+// POST /api/v1/plans for every line. Lines are taken in batches: the batch's stored plans are
+// read in one pipelined round trip and its writes go out in another, each write still an
+// atomic compare-and-set that queues its index changes in the outbox. Only one batch is held
+// in memory, and one result line is produced per input line. Both endpoints split the upload
+// with LineSplitter, so a line over max-line-size gets its own 413 result on either.
+@Service
+public class PlanBulkIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanBulkIngestService.class);
+
+    private static final int READ_CHUNK_SIZE = 8192;
+
+    private final PlanStorageService planStorageService;
+    private final PlanValidator planValidator;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final DataSize maxLineSize;
+    private final int maxWriteAttempts;
+
+    // An input line and its 1-based position in the upload; json is null for an oversized line
+    public record BulkLine(long number, String json) {
+
+        boolean isBlank() {
+            return json != null && json.isBlank();
+        }
+    }
+
+    @Autowired
+    public PlanBulkIngestService(PlanStorageService planStorageService, PlanValidator planValidator,
+            ObjectMapper objectMapper,
+            @Value("${plan.bulk.batch-size:500}") int batchSize,
+            @Value("${plan.bulk.max-line-size:1MB}") DataSize maxLineSize,
+            @Value("${plan.write.max-attempts:5}") int maxWriteAttempts) {
+        this.planStorageService = planStorageService;
+        this.planValidator = planValidator;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.maxLineSize = maxLineSize;
+        this.maxWriteAttempts = maxWriteAttempts;
+    }
+
+    public int getBatchSize() {
+        return Math.max(1, batchSize);
+    }
+
+    // A splitter for one upload
+    public LineSplitter lineSplitter() {
+        return new LineSplitter(maxLineSize.toBytes());
+    }
+
+    // Lines that carry a plan or a failure to report; blank lines are skipped
+    public static boolean isPlanLine(BulkLine line) {
+        return !line.isBlank();
+    }
+
+    // Reads NDJSON from in and writes one result line per plan to out, flushing after every
+    // batch so the client sees progress while it is still uploading
+    public void ingest(InputStream in, OutputStream out, String username) throws IOException {
+        LineSplitter splitter = lineSplitter();
+        List<BulkLine> batch = new ArrayList<>(getBatchSize());
+        byte[] chunk = new byte[READ_CHUNK_SIZE];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            add(batch, splitter.split(chunk, 0, read), out, username);
+        }
+        add(batch, splitter.finish(), out, username);
+        write(out, ingest(batch, username));
+    }
+
+    private void add(List<BulkLine> batch, List<BulkLine> lines, OutputStream out, String username) throws IOException {
+        for (BulkLine line : lines) {
+            if (!isPlanLine(line)) {
+                continue;
+            }
+            batch.add(line);
+            if (batch.size() == getBatchSize()) {
+                write(out, ingest(batch, username));
+                batch.clear();
+            }
+        }
+    }
+
+    // Stores one batch and returns the result of every line in it, in input order
+    public List<ObjectNode> ingest(List<BulkLine> lines, String username) {
+        ObjectNode[] results = new ObjectNode[lines.size()];
+        List<Integer> pending = new ArrayList<>(lines.size());
+        List<ObjectNode> plans = new ArrayList<>(lines.size());
+        List<String> data = new ArrayList<>(lines.size());
+
+        for (int i = 0; i < lines.size(); i++) {
+            BulkLine line = lines.get(i);
+            if (line.json() == null) {
+                results[i] = failure(line, null, "Line exceeds " + maxLineSize.toBytes() + " bytes", "PAYLOAD_TOO_LARGE");
+                continue;
+            }
+            try {
+                JsonNode node = objectMapper.readTree(line.json());
+                if (node == null || !node.isObject()) {
+                    throw new IllegalArgumentException("Line must be a JSON object");
+                }
+                ObjectNode plan = (ObjectNode) node;
+                planValidator.validate(plan);
+                plans.add(plan);
+                data.add(objectMapper.writeValueAsString(plan));
+                pending.add(i);
+            } catch (PlanValidationException ve) {
+                results[i] = failure(line, null, ve.getAllMessages().toString(), "VALIDATION_ERROR");
+            } catch (Exception e) {
+                results[i] = failure(line, null, "Invalid JSON payload", "INVALID_PAYLOAD");
+            }
+        }
+
+        // A plan repeated within the batch is written after the batch, on top of its earlier line
+        List<Integer> pipelined = new ArrayList<>(pending.size());
+        List<Integer> sequential = new ArrayList<>();
+        Set<String> batchIds = new HashSet<>();
+        for (int p = 0; p < pending.size(); p++) {
+            if (batchIds.add(objectId(plans.get(p)))) {
+                pipelined.add(p);
+            } else {
+                sequential.add(p);
+            }
+        }
+
+        if (!pipelined.isEmpty()) {
+            try {
+                List<String> ids = new ArrayList<>(pipelined.size());
+                for (int p : pipelined) {
+                    ids.add(objectId(plans.get(p)));
+                }
+                Map<String, StoredPlan> previous = planStorageService.getPlans(ids);
+
+                List<PlanStorageService.PlanWrite> writes = new ArrayList<>(pipelined.size());
+                for (int p : pipelined) {
+                    BulkLine line = lines.get(pending.get(p));
+                    String objectId = objectId(plans.get(p));
+                    writes.add(new PlanStorageService.PlanWrite(objectId, plans.get(p), data.get(p),
+                            metadata(username), etag(line), previous.get(objectId)));
+                }
+                List<Boolean> saved = planStorageService.savePlans(writes);
+                for (int w = 0; w < writes.size(); w++) {
+                    int p = pipelined.get(w);
+                    if (saved.get(w)) {
+                        results[pending.get(p)] = success(lines.get(pending.get(p)), writes.get(w));
+                    } else {
+                        // Lost to a concurrent write; retried on its own with a fresh read
+                        sequential.add(p);
+                    }
+                }
+            } catch (Exception e) {
+                // Writes are upserts against a fresh read, so re-applying a partly stored batch is safe
+                logger.warn("Pipelined bulk write failed, writing the batch one plan at a time: {}", e.getMessage());
+                sequential.addAll(pipelined);
+            }
+        }
+
+        sequential.sort(null);
+        for (int p : sequential) {
+            int i = pending.get(p);
+            results[i] = saveOne(lines.get(i), plans.get(p), data.get(p), username);
+        }
+        return List.of(results);
+    }
+
+    // The single-plan path of POST /api/v1/plans: read, compare-and-set, retry on a lost race
+    private ObjectNode saveOne(BulkLine line, ObjectNode plan, String data, String username) {
+        String objectId = objectId(plan);
+        try {
+            for (int attempt = 0; attempt < Math.max(1, maxWriteAttempts); attempt++) {
+                PlanStorageService.PlanWrite write = new PlanStorageService.PlanWrite(objectId, plan, data,
+                        metadata(username), etag(line), planStorageService.getPlan(objectId));
+                if (planStorageService.savePlan(write.planId(), write.planData(), write.data(), write.metadata(),
+                        write.etag(), write.previous())) {
+                    return success(line, write);
+                }
+            }
+            return failure(line, objectId, "Plan was modified concurrently, please retry", "CONFLICT");
+        } catch (Exception e) {
+            return failure(line, objectId, "Failed to store plan: " + e.getMessage(), "INTERNAL_ERROR");
+        }
+    }
+
+    private ObjectNode metadata(String username) {
+        ObjectNode metadata = objectMapper.createObjectNode();
+        metadata.put("created_by", username);
+        metadata.put("created_at", LocalDateTime.now().toString());
+        metadata.put("updated_at", LocalDateTime.now().toString());
+        return metadata;
+    }
+
+    // Same ETag as a single POST of the line's bytes
+    private static String etag(BulkLine line) {
+        return DigestUtils.md5DigestAsHex(line.json().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String objectId(ObjectNode plan) {
+        return plan.required("objectId").asText();
+    }
+
+    private ObjectNode success(BulkLine line, PlanStorageService.PlanWrite write) {
+        ObjectNode result = objectMapper.createObjectNode();
+        result.put("line", line.number());
+        result.put("objectId", write.planId());
+        result.put("status", 201);
+        result.put("etag", write.etag());
+        return result;
+    }
+
+    private ObjectNode failure(BulkLine line, String objectId, String detail, String code) {
+        ObjectNode result = objectMapper.createObjectNode();
+        result.put("line", line.number());
+        if (objectId != null) {
+            result.put("objectId", objectId);
+        }
+        result.put("status", switch (code) {
+            case "CONFLICT" -> 409;
+            case "PAYLOAD_TOO_LARGE" -> 413;
+            case "INTERNAL_ERROR" -> 500;
+            default -> 400;
+        });
+        result.put("code", code);
+        result.put("detail", detail);
+        return result;
+    }
+
+    private void write(OutputStream out, List<ObjectNode> results) throws IOException {
+        for (ObjectNode result : results) {
+            out.write(objectMapper.writeValueAsBytes(result));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    // Splits NDJSON into lines as its bytes arrive, in chunks of any size. A line is limited to
+    // maxLineBytes bytes of UTF-8, not characters; a longer one is dropped up to its end and
+    // returned without JSON, so one oversized plan cannot exhaust memory. Lines are numbered
+    // from 1, blank ones included, so results point at the line of the upload.
+    public static final class LineSplitter {
+        private final long maxLineBytes;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean tooLong;
+        private long number;
+
+        LineSplitter(long maxLineBytes) {
+            this.maxLineBytes = maxLineBytes;
+        }
+
+        // The lines the chunk completes; the rest is kept for the next chunk. A newline byte
+        // never occurs inside a multi-byte UTF-8 character, so chunks may split one anywhere.
+        public List<BulkLine> split(byte[] chunk, int offset, int length) {
+            List<BulkLine> lines = new ArrayList<>();
+            int start = offset;
+            for (int i = offset; i < offset + length; i++) {
+                if (chunk[i] == '\n') {
+                    append(chunk, start, i - start);
+                    lines.add(take());
+                    start = i + 1;
+                }
+            }
+            append(chunk, start, offset + length - start);
+            return lines;
+        }
+
+        // The last line when the input does not end with a newline
+        public List<BulkLine> finish() {
+            return line.size() > 0 || tooLong ? List.of(take()) : List.of();
+        }
+
+        private void append(byte[] chunk, int offset, int length) {
+            if (tooLong) {
+                return;
+            }
+            if (line.size() + (long) length > maxLineBytes) {
+                tooLong = true;
+                line.reset();
+                return;
+            }
+            line.write(chunk, offset, length);
+        }
+
+        private BulkLine take() {
+            BulkLine taken = new BulkLine(++number, tooLong ? null : line.toString(StandardCharsets.UTF_8));
+            line.reset();
+            tooLong = false;
+            return taken;
+        }
+    }
+}
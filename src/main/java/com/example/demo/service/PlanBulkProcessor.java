@@ -0,0 +1,148 @@
+package com.example.demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Feeds index documents to Elasticsearch in _bulk requests sent by a fixed number of senders.
+// Documents wait in a bounded queue and producers block while it is full, so reading Redis can
+// never outrun the cluster. The batch size follows the _bulk latency: it grows by a tenth while
+// requests finish within the target latency and halves when one takes longer or fails, so it
+// settles just below the size the cluster absorbs comfortably.
+final class PlanBulkProcessor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanBulkProcessor.class);
+    private static final long POLL_MS = 100;
+
+    // Documents submitted together; done completes once every one of them is indexed
+    private static final class Submission {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final AtomicInteger remaining;
+
+        Submission(int documents) {
+            this.remaining = new AtomicInteger(documents);
+        }
+    }
+
+    private record Pending(ElasticsearchService.IndexDocument document, Submission submission) {
+    }
+
+    private final ElasticsearchService elasticsearchService;
+    private final String index;
+    private final BlockingQueue<Pending> queue;
+    private final List<CompletableFuture<Void>> senders = new ArrayList<>();
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatencyNanos;
+    private final AtomicInteger batchSize;
+    private final LongAdder indexed = new LongAdder();
+    private volatile boolean closed;
+
+    PlanBulkProcessor(ElasticsearchService elasticsearchService, String index, ExecutorService executor,
+            int concurrency, int queueCapacity, int initialBatchSize, int minBatchSize, int maxBatchSize,
+            Duration targetLatency) {
+        this.elasticsearchService = elasticsearchService;
+        this.index = index;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.batchSize = new AtomicInteger(Math.min(this.maxBatchSize, Math.max(this.minBatchSize, initialBatchSize)));
+        for (int i = 0; i < Math.max(1, concurrency); i++) {
+            senders.add(CompletableFuture.runAsync(this::send, executor));
+        }
+    }
+
+    // Queues the documents, blocking while the queue is full
+    CompletableFuture<Void> submit(List<ElasticsearchService.IndexDocument> documents) throws InterruptedException {
+        if (documents.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (closed) {
+            throw new IllegalStateException("Bulk processor is closed");
+        }
+        Submission submission = new Submission(documents.size());
+        for (ElasticsearchService.IndexDocument document : documents) {
+            queue.put(new Pending(document, submission));
+        }
+        return submission.done;
+    }
+
+    int getBatchSize() {
+        return batchSize.get();
+    }
+
+    long getIndexed() {
+        return indexed.sum();
+    }
+
+    int getQueued() {
+        return queue.size();
+    }
+
+    private void send() {
+        List<Pending> batch = new ArrayList<>();
+        List<ElasticsearchService.IndexDocument> documents = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize.get() - 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            for (Pending pending : batch) {
+                documents.add(pending.document());
+            }
+            long start = System.nanoTime();
+            try {
+                elasticsearchService.indexDocuments(index, documents);
+                adapt(System.nanoTime() - start <= targetLatencyNanos);
+                indexed.add(documents.size());
+                for (Pending pending : batch) {
+                    if (pending.submission().remaining.decrementAndGet() == 0) {
+                        pending.submission().done.complete(null);
+                    }
+                }
+            } catch (Exception e) {
+                adapt(false);
+                for (Pending pending : batch) {
+                    pending.submission().done.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+            documents.clear();
+        }
+    }
+
+    private void adapt(boolean fast) {
+        int size = batchSize.updateAndGet(current -> fast
+                ? Math.min(maxBatchSize, current + Math.max(1, current / 10))
+                : Math.max(minBatchSize, current / 2));
+        if (!fast) {
+            logger.debug("Slow or failed _bulk request, batch size reduced to {}", size);
+        }
+    }
+
+    // Sends what is still queued and waits for the senders to finish
+    @Override
+    public void close() {
+        closed = true;
+        CompletableFuture.allOf(senders.toArray(new CompletableFuture<?>[0])).join();
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.demo.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// In-process near-cache of ready-to-serve GET /api/v1/plans/{id} bodies. Every plan write
+// publishes the plan id on INVALIDATION_CHANNEL, and each replica drops its copy when it
+// receives it.
+@Service
+public class PlanCacheService implements MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanCacheService.class);
+
+    public static final String INVALIDATION_CHANNEL = "plan:cache-invalidation";
+    private static final int STAMP_STRIPES = 1024;
+
+    private final Cache<String, PlanBody> cache;
+    private final boolean enabled;
+
+    // Bumped on every invalidation of a key in the stripe, so a miss that raced with a write
+    // does not put the value it read before the write back into the cache
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+
+    @Autowired
+    public PlanCacheService(
+            MeterRegistry meterRegistry,
+            @Value("${plan.cache.enabled:true}") boolean enabled,
+            @Value("${plan.cache.max-bytes:67108864}") long maxBytes,
+            @Value("${plan.cache.expire-after-write:10m}") Duration expireAfterWrite) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String id, PlanBody plan) -> plan.getData().length + plan.getEtag().length())
+                // Upper bound on staleness should an invalidation message ever be missed
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "plans.near-cache");
+    }
+
+    public PlanBody get(String planId) {
+        return enabled ? cache.getIfPresent(planId) : null;
+    }
+
+    // Call before reading the plan from Redis and hand the result to put()
+    public long stamp(String planId) {
+        return stamps.get(stripe(planId));
+    }
+
+    public PlanBody put(String planId, long stamp, PlanBody plan) {
+        if (enabled && stamps.get(stripe(planId)) == stamp) {
+            cache.put(planId, plan);
+        }
+        return plan;
+    }
+
+    // Drops the local copy; other replicas are reached through the channel message
+    public void invalidate(String planId) {
+        stamps.incrementAndGet(stripe(planId));
+        cache.invalidate(planId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String planId = new String(message.getBody(), StandardCharsets.UTF_8);
+        logger.debug("Invalidating cached plan {}", planId);
+        invalidate(planId);
+    }
+
+    private int stripe(String planId) {
+        return Math.floorMod(planId.hashCode(), STAMP_STRIPES);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Writes every stored plan as NDJSON, one plan's data per line, in pages of one SCAN step.
+// After each page a checkpoint line {"cursor": "..."} names the position to resume from with
+// GET /api/v1/plans/_export?cursor=...; the last line is {"cursor": null}. A client that lost
+// the connection restarts from the last checkpoint it received, so at most one page is sent
+// twice. Memory use is bounded by one page whatever the size of the keyspace.
+@Service
+public class PlanExportService {
+
+    public static final String CURSOR_FIELD = "cursor";
+
+    private final PlanStorageService planStorageService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${plan.export.scan-count:500}")
+    private int scanCount;
+
+    @Autowired
+    public PlanExportService(PlanStorageService planStorageService, ObjectMapper objectMapper) {
+        this.planStorageService = planStorageService;
+        this.objectMapper = objectMapper;
+    }
+
+    // Exports from the given cursor, or from the start when it is null. With gzip the output is
+    // compressed and flushed per page, so the client can decompress what it received so far.
+    public void export(String cursor, OutputStream out, boolean gzip) throws IOException {
+        OutputStream target = gzip ? new GZIPOutputStream(out, 8192, true) : out;
+        String next = cursor != null ? cursor : PlanStorageService.EXPORT_START;
+        while (next != null) {
+            PlanStorageService.PlanPage page = planStorageService.exportPlans(next, Math.max(1, scanCount));
+            for (byte[] plan : page.plans()) {
+                target.write(plan);
+                target.write('\n');
+            }
+            next = page.cursor();
+            ObjectNode checkpoint = objectMapper.createObjectNode();
+            checkpoint.put(CURSOR_FIELD, next);
+            target.write(objectMapper.writeValueAsBytes(checkpoint));
+            target.write('\n');
+            target.flush();
+        }
+        if (target instanceof GZIPOutputStream compressed) {
+            compressed.finish();
+        }
+        out.flush();
+    }
+}
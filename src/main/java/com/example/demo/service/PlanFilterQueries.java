@@ -0,0 +1,174 @@
+package com.example.demo.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch._types.query_dsl.RangeQuery;
+import co.elastic.clients.json.JsonData;
+import com.example.demo.model.PlanFilter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// Compiles a PlanFilter into one bool query whose clauses are all in filter context: they are not
+// scored, and Elasticsearch caches the matching documents of filters used often. Query objects
+// are immutable, so the query built for a filter is kept and handed to every later request with
+// an equal filter and layout; a filter differing only in empty ranges counts as equal. In the
+// join layout criteria on services and cost shares are has_child queries; in the nested layout
+// they are nested queries within the plan's document.
+public final class PlanFilterQueries {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final Query PLAN_RELATION = Query.of(q -> q.term(t -> t
+            .field(PlanIndexDocuments.RELATION_FIELD)
+            .value("plan")));
+
+    // Clients repeat a handful of filters; the bound only keeps one-off ones from piling up
+    private static final Cache<QueryKey, Query> QUERIES = Caffeine.newBuilder()
+            .maximumSize(1024)
+            .build();
+
+    private record QueryKey(PlanIndexLayout layout, PlanFilter filter) {
+    }
+
+    private PlanFilterQueries() {
+    }
+
+    // Throws IllegalArgumentException for a filter that check rejects
+    public static Query compile(PlanIndexLayout layout, PlanFilter filter) {
+        PlanFilter criteria = normalize(filter);
+        check(criteria);
+        return QUERIES.get(new QueryKey(layout, criteria), key -> build(layout, criteria));
+    }
+
+    // Drops empty ranges, which match any plan just like absent ones
+    static PlanFilter normalize(PlanFilter filter) {
+        if (filter == null) {
+            return new PlanFilter(null, null, null, null, null, null, null);
+        }
+        return new PlanFilter(filter.org(), filter.planType(), filter.serviceId(), filter.serviceName(),
+                nonEmpty(filter.creationDate()), nonEmpty(filter.copay()), nonEmpty(filter.deductible()));
+    }
+
+    private static <T> PlanFilter.Range<T> nonEmpty(PlanFilter.Range<T> range) {
+        return range != null && !range.isEmpty() ? range : null;
+    }
+
+    private static Query build(PlanIndexLayout layout, PlanFilter filter) {
+        boolean join = layout == PlanIndexLayout.JOIN;
+        List<Query> filters = new ArrayList<>();
+        if (join) {
+            // Nested layout searches only see plan documents anyway
+            filters.add(PLAN_RELATION);
+        }
+        if (filter.org() != null) {
+            filters.add(Query.of(q -> q.matchPhrase(m -> m.field("_org").query(filter.org()))));
+        }
+        if (filter.planType() != null) {
+            filters.add(Query.of(q -> q.matchPhrase(m -> m.field("planType").query(filter.planType()))));
+        }
+        if (filter.serviceId() != null) {
+            filters.add(linkedService(layout,
+                    field -> Query.of(q -> q.term(t -> t.field(field + "objectId").value(filter.serviceId())))));
+        }
+        if (filter.serviceName() != null) {
+            filters.add(linkedService(layout,
+                    field -> Query.of(q -> q.matchPhrase(m -> m.field(field + "name").query(filter.serviceName())))));
+        }
+        if (filter.creationDate() != null) {
+            filters.add(Query.of(q -> q.range(r -> bounds(r.field("creationDate").format("yyyy-MM-dd"),
+                    filter.creationDate()))));
+        }
+        boolean copay = filter.copay() != null;
+        boolean deductible = filter.deductible() != null;
+        if (copay || deductible) {
+            filters.add(join
+                    ? joinCostShare(filter, copay, deductible)
+                    : nestedCostShare(filter, copay, deductible));
+        }
+        return Query.of(q -> q.bool(b -> b.filter(filters)));
+    }
+
+    // One of the plan's linked services matches the query built for the prefix of its fields
+    private static Query linkedService(PlanIndexLayout layout, Function<String, Query> match) {
+        if (layout == PlanIndexLayout.NESTED) {
+            return Query.of(q -> q.nested(n -> n
+                    .path("linkedPlanServices")
+                    .query(match.apply("linkedPlanServices.linkedService."))));
+        }
+        return Query.of(q -> q.hasChild(h -> h
+                .type("linkedPlanService")
+                .query(service -> service.hasChild(s -> s
+                        .type("linkedService")
+                        .query(match.apply(""))))));
+    }
+
+    // The plan's own cost share or the cost share of one of its services is within all bounds
+    private static Query joinCostShare(PlanFilter filter, boolean copay, boolean deductible) {
+        Query within = costShareBounds(filter, copay, deductible, "");
+        return Query.of(q -> q.bool(b -> b
+                .should(s -> s.hasChild(h -> h.type("plancostShare").query(within)))
+                .should(s -> s.hasChild(h -> h
+                        .type("linkedPlanService")
+                        .query(service -> service.hasChild(c -> c.type("serviceCostShare").query(within)))))
+                .minimumShouldMatch("1")));
+    }
+
+    private static Query nestedCostShare(PlanFilter filter, boolean copay, boolean deductible) {
+        Query plan = costShareBounds(filter, copay, deductible, "planCostShares.");
+        Query service = costShareBounds(filter, copay, deductible, "linkedPlanServices.planserviceCostShares.");
+        return Query.of(q -> q.bool(b -> b
+                .should(plan)
+                .should(s -> s.nested(n -> n.path("linkedPlanServices").query(service)))
+                .minimumShouldMatch("1")));
+    }
+
+    private static Query costShareBounds(PlanFilter filter, boolean copay, boolean deductible, String prefix) {
+        List<Query> bounds = new ArrayList<>(2);
+        if (copay) {
+            bounds.add(Query.of(q -> q.range(r -> bounds(r.field(prefix + "copay"), filter.copay()))));
+        }
+        if (deductible) {
+            bounds.add(Query.of(q -> q.range(r -> bounds(r.field(prefix + "deductible"), filter.deductible()))));
+        }
+        return Query.of(q -> q.bool(b -> b.filter(bounds)));
+    }
+
+    private static RangeQuery.Builder bounds(RangeQuery.Builder range, PlanFilter.Range<?> bounds) {
+        if (bounds.gte() != null) {
+            range.gte(JsonData.of(bounds.gte()));
+        }
+        if (bounds.gt() != null) {
+            range.gt(JsonData.of(bounds.gt()));
+        }
+        if (bounds.lte() != null) {
+            range.lte(JsonData.of(bounds.lte()));
+        }
+        if (bounds.lt() != null) {
+            range.lt(JsonData.of(bounds.lt()));
+        }
+        return range;
+    }
+
+    // Throws IllegalArgumentException for a malformed date
+    public static void check(PlanFilter filter) {
+        PlanFilter.Range<String> range = filter != null ? filter.creationDate() : null;
+        if (range == null) {
+            return;
+        }
+        for (String date : new String[] { range.gte(), range.gt(), range.lte(), range.lt() }) {
+            if (date == null) {
+                continue;
+            }
+            try {
+                LocalDate.parse(date, DATE_FORMATTER);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid creationDate bound, expected yyyy-MM-dd: " + date);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Maps a plan onto the documents of the plans index, one per object of the join tree or a single
+// one with nested services depending on the layout, and diffs two versions of a plan into the
+// document changes that take the index from one to the other. Every document carries the id of
+// its plan, which is also its routing key, so the whole tree lands on one shard.
+public final class PlanIndexDocuments {
+
+    // Value of "operation" in a message that carries document changes rather than a whole plan
+    public static final String CHANGES_OPERATION = "changes";
+    public static final String UPSERT = "upsert";
+    public static final String DELETE = "delete";
+    // The _org values of the plan before and after the write, whose search results it may change
+    public static final String ORGS_FIELD = "orgs";
+    // The layout the changes were built for; messages without it predate the nested layout
+    public static final String INDEX_LAYOUT_FIELD = "indexLayout";
+
+    static final String RELATION_FIELD = "plan_service_relation";
+    static final String PLAN_ID_FIELD = "planId";
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final JsonNodeFactory nodes = JsonNodeFactory.instance;
+
+    private PlanIndexDocuments() {
+    }
+
+    // Documents of the plan in the given layout, keyed by document id
+    public static Map<String, ObjectNode> documents(PlanIndexLayout layout, JsonNode planJson) {
+        return switch (layout) {
+            case JOIN -> flatten(planJson);
+            case NESTED -> Map.of(planJson.required("objectId").asText(), nest(planJson));
+        };
+    }
+
+    // Documents of the plan keyed by document id, which is the objectId they were built from
+    static Map<String, ObjectNode> flatten(JsonNode planJson) {
+        Map<String, ObjectNode> documents = new LinkedHashMap<>();
+        String planId = planJson.required("objectId").asText();
+
+        // 1. Parent plan document
+        ObjectNode planDoc = planDocument(planJson, planId);
+        planDoc.set(RELATION_FIELD, relation("plan", null));
+        documents.put(planId, planDoc);
+
+        // 2. Plan cost shares as direct child of plan
+        JsonNode costShareJson = planJson.required("planCostShares");
+        ObjectNode costShareDoc = costShareDocument(costShareJson, planId);
+        costShareDoc.set(RELATION_FIELD, relation("plancostShare", planId));
+        documents.put(costShareJson.required("objectId").asText(), costShareDoc);
+
+        // 3. Linked plan services - mid-level parents of linkedService and serviceCostShare
+        for (JsonNode serviceJson : planJson.required("linkedPlanServices")) {
+            JsonNode linkedServiceJson = serviceJson.required("linkedService");
+            JsonNode serviceCostSharesJson = serviceJson.required("planserviceCostShares");
+            String serviceId = serviceJson.required("objectId").asText();
+
+            // 3a. linkedPlanService as child of plan
+            ObjectNode linkedPlanService = document(serviceJson, planId);
+            linkedPlanService.set(RELATION_FIELD, relation("linkedPlanService", planId));
+            documents.put(serviceId, linkedPlanService);
+
+            // 3b. linked service as child of linkedPlanService
+            ObjectNode linkedService = document(linkedServiceJson, planId);
+            linkedService.put("name", linkedServiceJson.required("name").asText());
+            linkedService.set(RELATION_FIELD, relation("linkedService", serviceId));
+            documents.put(linkedServiceJson.required("objectId").asText(), linkedService);
+
+            // 3c. service cost share as child of linkedPlanService
+            ObjectNode serviceCostShare = costShareDocument(serviceCostSharesJson, planId);
+            serviceCostShare.put("serviceId", serviceId);
+            serviceCostShare.set(RELATION_FIELD, relation("serviceCostShare", serviceId));
+            documents.put(serviceCostSharesJson.required("objectId").asText(), serviceCostShare);
+        }
+
+        return documents;
+    }
+
+    // The plan as one document: the plan cost share and every linked plan service, with its
+    // linked service and cost share, are objects of it named as in the plan
+    static ObjectNode nest(JsonNode planJson) {
+        String planId = planJson.required("objectId").asText();
+        ObjectNode planDoc = planDocument(planJson, planId);
+        planDoc.set("planCostShares", costShare(planJson.required("planCostShares")));
+        ArrayNode services = planDoc.putArray("linkedPlanServices");
+        for (JsonNode serviceJson : planJson.required("linkedPlanServices")) {
+            JsonNode linkedServiceJson = serviceJson.required("linkedService");
+            ObjectNode service = object(serviceJson);
+            service.set("linkedService", object(linkedServiceJson)
+                    .put("name", linkedServiceJson.required("name").asText()));
+            service.set("planserviceCostShares", costShare(serviceJson.required("planserviceCostShares")));
+            services.add(service);
+        }
+        return planDoc;
+    }
+
+    // The layout of an indexer message's changes
+    public static PlanIndexLayout layout(JsonNode message) {
+        JsonNode layout = message.get(INDEX_LAYOUT_FIELD);
+        return layout != null && layout.isTextual() ? PlanIndexLayout.of(layout.asText()) : PlanIndexLayout.JOIN;
+    }
+
+    // Builds the indexer message for a plan write: an upsert for every document that is new or
+    // differs from before, and a delete for every document the plan no longer has. previous is
+    // null for a new plan and current is null for a deleted one.
+    public static ObjectNode changes(PlanIndexLayout layout, String planId, JsonNode previous, JsonNode current) {
+        Map<String, ObjectNode> before = previous != null ? documents(layout, previous) : Collections.emptyMap();
+        Map<String, ObjectNode> after = current != null ? documents(layout, current) : Collections.emptyMap();
+
+        ObjectNode message = nodes.objectNode();
+        message.put("operation", CHANGES_OPERATION);
+        message.put("objectId", planId);
+        message.put(INDEX_LAYOUT_FIELD, layout.jsonValue());
+        Set<String> orgs = new LinkedHashSet<>();
+        for (JsonNode plan : new JsonNode[] {previous, current}) {
+            if (plan != null && plan.hasNonNull("_org")) {
+                orgs.add(plan.get("_org").asText());
+            }
+        }
+        ArrayNode orgList = message.putArray(ORGS_FIELD);
+        orgs.forEach(orgList::add);
+        ArrayNode changes = message.putArray(CHANGES_OPERATION);
+        for (Map.Entry<String, ObjectNode> document : after.entrySet()) {
+            if (!document.getValue().equals(before.get(document.getKey()))) {
+                change(changes, UPSERT, document.getKey(), planId).set("document", document.getValue());
+            }
+        }
+        for (String id : before.keySet()) {
+            if (!after.containsKey(id)) {
+                change(changes, DELETE, id, planId);
+            }
+        }
+        return message;
+    }
+
+    private static ObjectNode change(ArrayNode changes, String action, String id, String routing) {
+        return changes.addObject()
+                .put("action", action)
+                .put("id", id)
+                .put("routing", routing);
+    }
+
+    private static ObjectNode planDocument(JsonNode planJson, String planId) {
+        ObjectNode doc = document(planJson, planId);
+        doc.put("planType", planJson.required("planType").asText());
+        // Parse the date so malformed values fail here rather than inside the bulk response
+        doc.put("creationDate", LocalDate.parse(planJson.required("creationDate").asText(), DATE_FORMATTER).format(DATE_FORMATTER));
+        return doc;
+    }
+
+    private static ObjectNode document(JsonNode objectJson, String planId) {
+        return object(objectJson).put(PLAN_ID_FIELD, planId);
+    }
+
+    private static ObjectNode object(JsonNode objectJson) {
+        ObjectNode doc = nodes.objectNode();
+        doc.put("objectId", objectJson.required("objectId").asText());
+        doc.put("objectType", objectJson.required("objectType").asText());
+        doc.put("_org", objectJson.required("_org").asText());
+        return doc;
+    }
+
+    private static ObjectNode costShareDocument(JsonNode costShareJson, String planId) {
+        return costShare(costShareJson).put(PLAN_ID_FIELD, planId);
+    }
+
+    private static ObjectNode costShare(JsonNode costShareJson) {
+        ObjectNode doc = object(costShareJson);
+        doc.put("deductible", costShareJson.required("deductible").asInt());
+        doc.put("copay", costShareJson.required("copay").asInt());
+        return doc;
+    }
+
+    private static ObjectNode relation(String name, String parent) {
+        ObjectNode relation = nodes.objectNode();
+        relation.put("name", name);
+        if (parent != null) {
+            relation.put("parent", parent);
+        }
+        return relation;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.demo.service;
+
+import java.util.Locale;
+
+// How plans are laid out in the plans index, chosen with elasticsearch.index.layout.
+//
+// JOIN indexes every object of a plan as its own document, tied to its parent by the join field,
+// so a write reindexes only the objects it changed, but every query across objects is a
+// has_child join that needs global ordinals and slows down as the index grows. NESTED indexes a
+// plan as one document whose services are nested objects, so those queries stay within the plan's
+// document, at the price of reindexing the whole plan on every write.
+public enum PlanIndexLayout {
+    JOIN,
+    NESTED;
+
+    // Throws IllegalArgumentException for anything but join or nested
+    public static PlanIndexLayout of(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown index layout " + value + ", expected join or nested");
+        }
+    }
+
+    public String jsonValue() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
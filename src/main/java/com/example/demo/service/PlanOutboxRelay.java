@@ -0,0 +1,154 @@
+package com.example.demo.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Moves index changes from the Redis outbox to RabbitMQ. Writes only append to the outbox
+// stream, inside the script that stores the plan; this relay publishes the oldest entries in
+// batches, waits for the broker to confirm them and only then deletes them from the stream.
+// A crash in between publishes a batch twice, which the indexer absorbs since every change
+// is an idempotent upsert or delete. One replica at a time holds the relay lease, so entries
+// leave the outbox in the order they were written.
+//
+// A rebuild of the index from Redis pauses the relay before it reads the first plan and resumes
+// it once the alias points at the rebuilt index, which then receives every change written in
+// between from the entries held back.
+@Service
+public class PlanOutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanOutboxRelay.class);
+    private static final String LEASE_KEY = PlanStorageService.OUTBOX_KEY + ":relay";
+    // While this key exists entries stay in the outbox; its value names who paused the relay
+    private static final String PAUSE_KEY = PlanStorageService.OUTBOX_KEY + ":paused";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RabbitMQProducerService rabbitMQProducerService;
+    private final RedisScript<Long> leaseScript;
+    private final String owner = UUID.randomUUID().toString();
+    private final ScheduledExecutorService relay = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "plan-outbox-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${plan.outbox.batch-size:200}")
+    private int batchSize;
+
+    @Value("${plan.outbox.poll-interval:100ms}")
+    private Duration pollInterval;
+
+    @Value("${plan.outbox.lease-time:10s}")
+    private Duration leaseTime;
+
+    @Value("${plan.outbox.confirm-timeout:5s}")
+    private Duration confirmTimeout;
+
+    @Autowired
+    public PlanOutboxRelay(RedisTemplate<String, String> redisTemplate,
+            RabbitMQProducerService rabbitMQProducerService) {
+        this.redisTemplate = redisTemplate;
+        this.rabbitMQProducerService = rabbitMQProducerService;
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("redis/lease.lua")));
+        script.setResultType(Long.class);
+        this.leaseScript = script;
+    }
+
+    @PostConstruct
+    public void start() {
+        relay.scheduleWithFixedDelay(this::drain, 0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        relay.shutdownNow();
+    }
+
+    // Holds entries in the outbox until resume. Returns once no replica is in the middle of
+    // relaying a batch read before the pause: a relay looks for the pause after taking the lease,
+    // so the lease being free once means every later batch sees it.
+    public void pause(String reason) throws InterruptedException {
+        redisTemplate.opsForValue().set(PAUSE_KEY, reason);
+        String pauser = UUID.randomUUID().toString();
+        while (!holdLease(pauser)) {
+            Thread.sleep(pollInterval.toMillis());
+        }
+        releaseLease(pauser);
+        logger.info("Paused the outbox relay for {}", reason);
+    }
+
+    public void resume() {
+        if (Boolean.TRUE.equals(redisTemplate.delete(PAUSE_KEY))) {
+            logger.info("Resumed the outbox relay");
+        }
+    }
+
+    // Relays batches until the outbox is empty; runs again one poll interval later. Failures
+    // leave the entries in place for the next run.
+    void drain() {
+        try {
+            while (holdLease(owner)) {
+                if (Boolean.TRUE.equals(redisTemplate.hasKey(PAUSE_KEY))) {
+                    releaseLease(owner);
+                    return;
+                }
+                List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream()
+                        .range(PlanStorageService.OUTBOX_KEY, Range.unbounded(), Limit.limit().count(batchSize));
+                if (records == null || records.isEmpty()) {
+                    return;
+                }
+
+                List<String> messages = new ArrayList<>(records.size());
+                List<RecordId> ids = new ArrayList<>(records.size());
+                for (MapRecord<String, Object, Object> record : records) {
+                    Object payload = record.getValue().get(PlanStorageService.OUTBOX_PAYLOAD_FIELD);
+                    if (payload != null) {
+                        messages.add(payload.toString());
+                    }
+                    ids.add(record.getId());
+                }
+                if (!messages.isEmpty()) {
+                    rabbitMQProducerService.sendMessagesConfirmed(messages, confirmTimeout);
+                }
+                redisTemplate.opsForStream().delete(PlanStorageService.OUTBOX_KEY, ids.toArray(new RecordId[0]));
+                logger.debug("Relayed {} outbox entries", ids.size());
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to relay outbox entries, will retry: {}", e.getMessage());
+        }
+    }
+
+    private boolean holdLease(String holder) {
+        Long held = redisTemplate.execute(leaseScript, List.of(LEASE_KEY),
+                holder, String.valueOf(leaseTime.toMillis()));
+        return held != null && held == 1L;
+    }
+
+    private void releaseLease(String holder) {
+        if (holder.equals(redisTemplate.opsForValue().get(LEASE_KEY))) {
+            redisTemplate.delete(LEASE_KEY);
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package com.example.demo.service;
+
+import com.example.demo.config.ElasticsearchIndexConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Rebuilds the plans index from Redis, the source of truth. The keyspace is walked in two
+// slices that run in parallel, plan hashes and legacy string plans, each one SCAN page at a
+// time. Every page is turned into index documents on a fork-join pool and handed to a
+// PlanBulkProcessor, whose bounded queue holds the readers back when Elasticsearch falls behind.
+// Refreshing and replicas are switched off during the load and restored afterwards.
+//
+// Progress is checkpointed in the plan:reindex hash: per slice the cursor of the last page whose
+// documents are all indexed, so a job that died resumes from there (automatically, on whichever
+// replica takes over the lease) and sends at most a few pages again. A plan written while its
+// page was in flight is indexed again once its ETag shows the change, and the documents the job
+// wrote for the older version that the newer one no longer has are deleted, so the job never
+// leaves an older version behind the indexer's. At the end, documents of plans no longer in
+// Redis are deleted.
+//
+// A job normally loads the index behind the alias. A rebuild instead fills a new physical index
+// by name while the alias stays on the previous one, with the outbox relay paused from before
+// the first read; once it completes, the alias moves to the new index and the relay resumes,
+// replaying every change written during the rebuild into it.
+@Service
+public class PlanReindexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanReindexService.class);
+
+    private static final String CHECKPOINT_KEY = "plan:reindex";
+    private static final String LEASE_KEY = CHECKPOINT_KEY + ":lease";
+    private static final String RUNNING = "running";
+    private static final String COMPLETED = "completed";
+    private static final String FAILED = "failed";
+    // Cursor of a slice that has been walked to its end
+    private static final String DONE = "done";
+    // Pages a slice reads ahead of the last one that is fully indexed
+    private static final int MAX_PAGES_IN_FLIGHT = 4;
+    // Rounds of re-indexing plans that keep changing while they are indexed; the indexer has the
+    // last word on any plan still changing after that
+    private static final int MAX_VERIFY_ROUNDS = 3;
+    private static final int SWEEP_PAGE_SIZE = 1000;
+
+    // A slice of the keyspace: the checkpoint field of its cursor, where it starts and where it ends
+    private record Slice(String field, String start, String end) {
+    }
+
+    private static final List<Slice> SLICES = List.of(
+            new Slice("cursor.hash", PlanStorageService.EXPORT_START, PlanStorageService.EXPORT_STRINGS_START),
+            new Slice("cursor.string", PlanStorageService.EXPORT_STRINGS_START, null));
+
+    // A page whose documents are queued: its plans' ETags as read, the ids of their documents,
+    // and the cursor after it
+    private record PageInFlight(String cursor, CompletableFuture<Void> indexed, Map<String, String> etags,
+            Map<String, Set<String>> documentIds, int plans, int documents, int failed) {
+    }
+
+    private record BuiltPlan(String planId, String etag, List<ElasticsearchService.IndexDocument> documents) {
+
+        Set<String> documentIds() {
+            Set<String> ids = new HashSet<>();
+            for (ElasticsearchService.IndexDocument document : documents) {
+                ids.add(document.id());
+            }
+            return ids;
+        }
+    }
+
+    private final PlanStorageService planStorageService;
+    private final ElasticsearchService elasticsearchService;
+    private final PlanSearchCacheService planSearchCacheService;
+    private final PlanOutboxRelay planOutboxRelay;
+    private final ElasticsearchIndexConfig elasticsearchIndexConfig;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final PlanIndexLayout indexLayout;
+    private final RedisScript<Long> leaseScript;
+    private final String owner = UUID.randomUUID().toString();
+    private final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "plan-reindex");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "plan-reindex-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // State of the job running in this process, if any
+    private volatile PlanBulkProcessor processor;
+    private volatile String jobIndex;
+    private volatile PlanIndexLayout jobLayout;
+    private volatile boolean leaseLost;
+    private volatile long runStartNanos;
+    private volatile long plansAtRunStart;
+    private volatile long documentsAtRunStart;
+
+    @Value("${plan.reindex.scan-count:500}")
+    private int scanCount;
+
+    @Value("${plan.reindex.parallelism:0}")
+    private int parallelism;
+
+    @Value("${plan.reindex.lease-time:30s}")
+    private Duration leaseTime;
+
+    @Value("${plan.reindex.bulk.concurrency:2}")
+    private int bulkConcurrency;
+
+    @Value("${plan.reindex.bulk.queue-capacity:10000}")
+    private int bulkQueueCapacity;
+
+    @Value("${plan.reindex.bulk.initial-size:500}")
+    private int bulkInitialSize;
+
+    @Value("${plan.reindex.bulk.min-size:50}")
+    private int bulkMinSize;
+
+    @Value("${plan.reindex.bulk.max-size:5000}")
+    private int bulkMaxSize;
+
+    @Value("${plan.reindex.bulk.target-latency:1s}")
+    private Duration bulkTargetLatency;
+
+    @Autowired
+    public PlanReindexService(PlanStorageService planStorageService, ElasticsearchService elasticsearchService,
+            PlanSearchCacheService planSearchCacheService, PlanOutboxRelay planOutboxRelay,
+            ElasticsearchIndexConfig elasticsearchIndexConfig, RedisTemplate<String, String> redisTemplate,
+            ObjectMapper objectMapper, PlanIndexLayout indexLayout) {
+        this.planStorageService = planStorageService;
+        this.elasticsearchService = elasticsearchService;
+        this.planSearchCacheService = planSearchCacheService;
+        this.planOutboxRelay = planOutboxRelay;
+        this.elasticsearchIndexConfig = elasticsearchIndexConfig;
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.indexLayout = indexLayout;
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("redis/lease.lua")));
+        script.setResultType(Long.class);
+        this.leaseScript = script;
+    }
+
+    // Holds the lease while a job runs here, and takes over a job whose replica died
+    @PostConstruct
+    public void start() {
+        long period = Math.max(1, leaseTime.toMillis() / 3);
+        watchdog.scheduleWithFixedDelay(this::watch, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        watchdog.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    // Starts a reindex, or resumes the last one from its checkpoint unless it completed or
+    // restart is set. Throws IllegalStateException while a job runs on any replica.
+    public synchronized ObjectNode startReindex(boolean restart) {
+        if (processor != null || !holdLease()) {
+            throw new IllegalStateException("A reindex is already running");
+        }
+        try {
+            Map<Object, Object> checkpoint = redisTemplate.opsForHash().entries(CHECKPOINT_KEY);
+            boolean resume = !restart && !checkpoint.isEmpty() && !COMPLETED.equals(checkpoint.get("status"));
+            if (resume && isRebuild(checkpoint) && FAILED.equals(checkpoint.get("status"))) {
+                // The relay resumed when the rebuild failed, so the changes since then only
+                // reached the previous index; the new one has to be filled again
+                begin(string(checkpoint, "index"), PlanIndexLayout.of(string(checkpoint, "layout")), true);
+            } else if (!resume) {
+                begin(ElasticsearchIndexConfig.ALIAS, indexLayout, false);
+            }
+            launch();
+            return status();
+        } catch (RuntimeException e) {
+            releaseLease();
+            throw e;
+        }
+    }
+
+    // Fills the physical index from Redis in layout and moves the alias to it once complete.
+    // Throws IllegalStateException while a job runs on any replica.
+    public synchronized ObjectNode startRebuild(String index, PlanIndexLayout layout) {
+        if (processor != null || !holdLease()) {
+            throw new IllegalStateException("A reindex is already running");
+        }
+        try {
+            begin(index, layout, true);
+            launch();
+            return status();
+        } catch (RuntimeException e) {
+            releaseLease();
+            throw e;
+        }
+    }
+
+    // The checkpoint of the current or last job, with throughput and ETA while it runs here
+    public ObjectNode status() {
+        Map<Object, Object> checkpoint = redisTemplate.opsForHash().entries(CHECKPOINT_KEY);
+        ObjectNode status = objectMapper.createObjectNode();
+        if (checkpoint.isEmpty()) {
+            status.put("status", "none");
+            return status;
+        }
+        status.put("id", string(checkpoint, "id"));
+        status.put("status", string(checkpoint, "status"));
+        status.put("index", checkpoint.containsKey("index") ? string(checkpoint, "index") : ElasticsearchIndexConfig.ALIAS);
+        status.put("rebuild", isRebuild(checkpoint));
+        status.put("startedAt", instant(checkpoint, "startedAt"));
+        status.put("finishedAt", instant(checkpoint, "finishedAt"));
+        long plans = number(checkpoint, "plans");
+        long estimated = Math.max(plans, number(checkpoint, "estimatedPlans"));
+        status.put("plans", plans);
+        status.put("documents", number(checkpoint, "documents"));
+        status.put("failed", number(checkpoint, "failed"));
+        status.put("orphansDeleted", number(checkpoint, "orphansDeleted"));
+        status.put("estimatedPlans", estimated);
+        status.put("progress", COMPLETED.equals(checkpoint.get("status")) ? 1.0
+                : estimated > 0 ? (double) plans / estimated : 0.0);
+        if (checkpoint.get("error") != null) {
+            status.put("error", string(checkpoint, "error"));
+        }
+
+        PlanBulkProcessor running = processor;
+        if (running != null) {
+            double seconds = Math.max(1e-3, (System.nanoTime() - runStartNanos) / 1e9);
+            double plansPerSecond = (plans - plansAtRunStart) / seconds;
+            status.put("plansPerSecond", Math.round(plansPerSecond));
+            status.put("documentsPerSecond", Math.round((number(checkpoint, "documents") - documentsAtRunStart) / seconds));
+            if (plansPerSecond > 0) {
+                status.put("etaSeconds", Math.round((estimated - plans) / plansPerSecond));
+            }
+            status.put("batchSize", running.getBatchSize());
+            status.put("queuedDocuments", running.getQueued());
+        }
+        return status;
+    }
+
+    private void begin(String index, PlanIndexLayout layout, boolean rebuild) {
+        if (rebuild) {
+            // Before the first read, so every write the job may miss stays in the outbox
+            try {
+                planOutboxRelay.pause("rebuild of " + index);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while pausing the outbox relay", e);
+            }
+        }
+        // DBSIZE also counts index keys and other hashes, so the estimate errs on the high side
+        Long keys = redisTemplate.execute((RedisCallback<Long>) connection -> connection.serverCommands().dbSize());
+        ElasticsearchService.LoadSettings settings = elasticsearchService.getLoadSettings(index);
+        Map<String, String> checkpoint = new LinkedHashMap<>();
+        checkpoint.put("id", UUID.randomUUID().toString());
+        checkpoint.put("status", RUNNING);
+        checkpoint.put("startedAt", String.valueOf(System.currentTimeMillis()));
+        checkpoint.put("index", index);
+        checkpoint.put("layout", layout.jsonValue());
+        checkpoint.put("rebuild", String.valueOf(rebuild));
+        for (Slice slice : SLICES) {
+            checkpoint.put(slice.field(), slice.start());
+        }
+        checkpoint.put("plans", "0");
+        checkpoint.put("documents", "0");
+        checkpoint.put("failed", "0");
+        checkpoint.put("orphansDeleted", "0");
+        checkpoint.put("estimatedPlans", String.valueOf(keys != null ? keys : 0));
+        checkpoint.put("refreshInterval", settings.refreshInterval());
+        checkpoint.put("replicas", settings.replicas());
+        redisTemplate.delete(CHECKPOINT_KEY);
+        redisTemplate.opsForHash().putAll(CHECKPOINT_KEY, checkpoint);
+    }
+
+    private void launch() {
+        Map<Object, Object> checkpoint = redisTemplate.opsForHash().entries(CHECKPOINT_KEY);
+        redisTemplate.opsForHash().put(CHECKPOINT_KEY, "status", RUNNING);
+        redisTemplate.opsForHash().delete(CHECKPOINT_KEY, "error", "finishedAt");
+        leaseLost = false;
+        runStartNanos = System.nanoTime();
+        plansAtRunStart = number(checkpoint, "plans");
+        documentsAtRunStart = number(checkpoint, "documents");
+        // Checkpoints written before jobs had a target load the alias in the configured layout
+        jobIndex = checkpoint.containsKey("index") ? string(checkpoint, "index") : ElasticsearchIndexConfig.ALIAS;
+        jobLayout = checkpoint.containsKey("layout") ? PlanIndexLayout.of(string(checkpoint, "layout")) : indexLayout;
+        processor = new PlanBulkProcessor(elasticsearchService, jobIndex, workers, bulkConcurrency, bulkQueueCapacity,
+                bulkInitialSize, bulkMinSize, bulkMaxSize, bulkTargetLatency);
+        logger.info("Reindex {} {} with {} plan(s) done", string(checkpoint, "id"),
+                plansAtRunStart > 0 ? "resumed" : "started", plansAtRunStart);
+        CompletableFuture.runAsync(() -> run(checkpoint), workers);
+    }
+
+    private void run(Map<Object, Object> checkpoint) {
+        ElasticsearchService.LoadSettings original = new ElasticsearchService.LoadSettings(
+                string(checkpoint, "refreshInterval"), string(checkpoint, "replicas"));
+        boolean rebuild = isRebuild(checkpoint);
+        ForkJoinPool builders = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        try {
+            elasticsearchService.putLoadSettings(jobIndex, new ElasticsearchService.LoadSettings("-1", "0"));
+            List<CompletableFuture<Void>> slices = new ArrayList<>();
+            for (Slice slice : SLICES) {
+                String cursor = string(checkpoint, slice.field());
+                if (!DONE.equals(cursor)) {
+                    slices.add(CompletableFuture.runAsync(() -> runSlice(slice, cursor, builders), workers));
+                }
+            }
+            CompletableFuture.allOf(slices.toArray(new CompletableFuture<?>[0])).join();
+            processor.close();
+
+            elasticsearchService.putLoadSettings(jobIndex, original);
+            elasticsearchService.refreshIndex(jobIndex);
+            long orphans = deleteOrphans();
+            if (rebuild) {
+                elasticsearchIndexConfig.promote(jobIndex);
+                planOutboxRelay.resume();
+            }
+            planSearchCacheService.changed(List.of(), true);
+
+            redisTemplate.opsForHash().increment(CHECKPOINT_KEY, "orphansDeleted", orphans);
+            redisTemplate.opsForHash().put(CHECKPOINT_KEY, "finishedAt", String.valueOf(System.currentTimeMillis()));
+            redisTemplate.opsForHash().put(CHECKPOINT_KEY, "status", COMPLETED);
+            logger.info("Reindex {} completed: {}", string(checkpoint, "id"), status());
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.error("Reindex {} failed, resume it to continue from its checkpoint: {}",
+                    string(checkpoint, "id"), cause.getMessage(), cause);
+            processor.close();
+            if (!leaseLost) {
+                // Another replica that took over the job owns the checkpoint and the settings now
+                redisTemplate.opsForHash().put(CHECKPOINT_KEY, "status", FAILED);
+                redisTemplate.opsForHash().put(CHECKPOINT_KEY, "error", String.valueOf(cause.getMessage()));
+                try {
+                    elasticsearchService.putLoadSettings(jobIndex, original);
+                } catch (Exception restore) {
+                    logger.warn("Failed to restore index settings: {}", restore.getMessage());
+                }
+                if (rebuild) {
+                    // The alias stays on the previous index, which the held-back changes reach
+                    try {
+                        planOutboxRelay.resume();
+                    } catch (Exception resume) {
+                        logger.warn("Failed to resume the outbox relay: {}", resume.getMessage());
+                    }
+                }
+            }
+        } finally {
+            builders.shutdown();
+            synchronized (this) {
+                processor = null;
+                releaseLease();
+            }
+        }
+    }
+
+    // Walks one slice from its checkpoint, keeping a few pages in flight, and advances the
+    // checkpoint in page order as their documents are indexed
+    private void runSlice(Slice slice, String cursor, ForkJoinPool builders) {
+        Deque<PageInFlight> inFlight = new ArrayDeque<>();
+        try {
+            String next = cursor;
+            while (next != null && !next.equals(slice.end())) {
+                if (leaseLost) {
+                    throw new IllegalStateException("Lost the reindex lease");
+                }
+                PlanStorageService.PlanPage page = planStorageService.exportPlans(next, Math.max(1, scanCount));
+                List<BuiltPlan> built = build(page, builders);
+                Map<String, String> etags = new HashMap<>();
+                Map<String, Set<String>> documentIds = new HashMap<>();
+                List<ElasticsearchService.IndexDocument> documents = new ArrayList<>();
+                int failed = 0;
+                for (BuiltPlan plan : built) {
+                    if (plan == null) {
+                        failed++;
+                        continue;
+                    }
+                    etags.put(plan.planId(), plan.etag());
+                    documentIds.put(plan.planId(), plan.documentIds());
+                    documents.addAll(plan.documents());
+                }
+                inFlight.add(new PageInFlight(page.cursor(), processor.submit(documents), etags, documentIds,
+                        etags.size(), documents.size(), failed));
+                while (!inFlight.isEmpty() && (inFlight.size() > MAX_PAGES_IN_FLIGHT || inFlight.peek().indexed().isDone())) {
+                    commit(slice, inFlight.poll());
+                }
+                next = page.cursor();
+            }
+            while (!inFlight.isEmpty()) {
+                commit(slice, inFlight.poll());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reindex interrupted", e);
+        }
+    }
+
+    // Parses the page's plans and flattens them into index documents in parallel; a plan that
+    // cannot be indexed is logged and counted as failed rather than failing the job
+    private List<BuiltPlan> build(PlanStorageService.PlanPage page, ForkJoinPool builders) throws InterruptedException {
+        try {
+            return builders.submit(() -> IntStream.range(0, page.plans().size())
+                    .parallel()
+                    .mapToObj(i -> build(page.plans().get(i), page.etags().get(i)))
+                    .toList()).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to build index documents: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private BuiltPlan build(byte[] data, String etag) {
+        try {
+            return build(objectMapper.readTree(data), etag);
+        } catch (Exception e) {
+            logger.warn("Skipping plan that cannot be indexed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private BuiltPlan build(JsonNode plan, String etag) {
+        String planId = plan.required("objectId").asText();
+        List<ElasticsearchService.IndexDocument> documents = new ArrayList<>();
+        PlanIndexDocuments.documents(jobLayout, plan).forEach((id, document) ->
+                documents.add(new ElasticsearchService.IndexDocument(id, planId, document)));
+        return new BuiltPlan(planId, etag, documents);
+    }
+
+    private void commit(Slice slice, PageInFlight page) throws InterruptedException {
+        page.indexed().join();
+        int documents = page.documents() + reindexChanged(page.etags(), page.documentIds());
+        String cursor = page.cursor() == null || page.cursor().equals(slice.end()) ? DONE : page.cursor();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] key = bytes(CHECKPOINT_KEY);
+            connection.hashCommands().hSet(key, bytes(slice.field()), bytes(cursor));
+            connection.hashCommands().hIncrBy(key, bytes("plans"), page.plans());
+            connection.hashCommands().hIncrBy(key, bytes("documents"), documents);
+            connection.hashCommands().hIncrBy(key, bytes("failed"), page.failed());
+            return null;
+        });
+    }
+
+    // Re-reads the plans just indexed and indexes again those whose ETag changed since they were
+    // read. A plan whose ETag is still the same was not written after the read, so the indexer
+    // applies any later write on top of this job's document. Documents this job wrote for the
+    // version it read that the current one no longer has, e.g. a service the indexer deleted
+    // before the job's upsert brought it back, are deleted by id.
+    private int reindexChanged(Map<String, String> etags, Map<String, Set<String>> documentIds)
+            throws InterruptedException {
+        int documents = 0;
+        Map<String, String> expected = etags;
+        for (int round = 0; round < MAX_VERIFY_ROUNDS && !expected.isEmpty(); round++) {
+            Map<String, StoredPlan> current = planStorageService.getPlans(expected.keySet());
+            Map<String, String> changed = new HashMap<>();
+            List<ElasticsearchService.IndexDocument> changedDocuments = new ArrayList<>();
+            List<ElasticsearchService.IndexDocument> staleDocuments = new ArrayList<>();
+            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                StoredPlan plan = current.get(entry.getKey());
+                // Deleted plans are left to the orphan sweep
+                if (plan == null || plan.getEtag().equals(entry.getValue())) {
+                    continue;
+                }
+                BuiltPlan built = build(plan.getData(), plan.getEtag());
+                if (built == null) {
+                    continue;
+                }
+                changedDocuments.addAll(built.documents());
+                changed.put(entry.getKey(), plan.getEtag());
+                Set<String> ids = built.documentIds();
+                for (String id : documentIds.getOrDefault(entry.getKey(), Set.of())) {
+                    if (!ids.contains(id)) {
+                        staleDocuments.add(new ElasticsearchService.IndexDocument(id, entry.getKey(), null));
+                    }
+                }
+                documentIds.put(entry.getKey(), ids);
+            }
+            processor.submit(changedDocuments).join();
+            elasticsearchService.deleteDocuments(jobIndex, staleDocuments);
+            documents += changedDocuments.size();
+            expected = changed;
+        }
+        return documents;
+    }
+
+    // Deletes the documents of plans that are indexed but no longer in Redis
+    private long deleteOrphans() {
+        long orphans = 0;
+        String after = null;
+        List<String> planIds;
+        do {
+            planIds = elasticsearchService.indexedPlanIds(jobIndex, after, SWEEP_PAGE_SIZE);
+            if (planIds.isEmpty()) {
+                break;
+            }
+            List<String> missing = new ArrayList<>(planStorageService.missingPlans(planIds));
+            if (!missing.isEmpty()) {
+                elasticsearchService.deletePlanDocuments(jobIndex, missing);
+                orphans += missing.size();
+            }
+            after = planIds.get(planIds.size() - 1);
+        } while (planIds.size() == SWEEP_PAGE_SIZE);
+        if (orphans > 0) {
+            logger.info("Deleted the documents of {} plan(s) that are no longer stored", orphans);
+        }
+        return orphans;
+    }
+
+    private void watch() {
+        try {
+            if (processor != null) {
+                if (!holdLease()) {
+                    logger.warn("Lost the reindex lease, stopping the job");
+                    leaseLost = true;
+                }
+                return;
+            }
+            // A job still marked running without a running replica holding the lease died with it
+            Object status = redisTemplate.opsForHash().get(CHECKPOINT_KEY, "status");
+            if (RUNNING.equals(status) && Boolean.FALSE.equals(redisTemplate.hasKey(LEASE_KEY))) {
+                synchronized (this) {
+                    if (processor == null && holdLease()) {
+                        logger.info("Taking over interrupted reindex");
+                        launch();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Reindex watchdog failed: {}", e.getMessage());
+        }
+    }
+
+    private boolean holdLease() {
+        Long held = redisTemplate.execute(leaseScript, List.of(LEASE_KEY),
+                owner, String.valueOf(leaseTime.toMillis()));
+        return held != null && held == 1L;
+    }
+
+    private void releaseLease() {
+        if (owner.equals(redisTemplate.opsForValue().get(LEASE_KEY))) {
+            redisTemplate.delete(LEASE_KEY);
+        }
+    }
+
+    private static boolean isRebuild(Map<Object, Object> checkpoint) {
+        return Boolean.parseBoolean(string(checkpoint, "rebuild"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(Map<Object, Object> checkpoint, String field) {
+        Object value = checkpoint.get(field);
+        return value != null ? value.toString() : null;
+    }
+
+    private static long number(Map<Object, Object> checkpoint, String field) {
+        Object value = checkpoint.get(field);
+        return value != null ? Long.parseLong(value.toString()) : 0;
+    }
+
+    private static String instant(Map<Object, Object> checkpoint, String field) {
+        Object value = checkpoint.get(field);
+        return value != null ? Instant.ofEpochMilli(Long.parseLong(value.toString())).toString() : null;
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.demo.service;
+
+import com.example.demo.model.PlanFilter;
+import com.example.demo.model.PlanSearchResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Caches /search and /_search responses in Redis, and optionally in process, under the normalized query
+// and the current version of the data it reads. Versions are counters in Redis: one per org,
+// one for all orgs, and one for changes whose org is unknown. Indexing does not wait for a
+// refresh, so the versions the indexer reports as changed are bumped invalidation-delay later,
+// once the periodic refresh made the change searchable. A version changed again before its bump
+// is bumped once more invalidation-delay after the later change, since a page cached in between
+// may predate it. An entry is then never read again and expires; until the bump a search may be
+// served the page from before the change, as Elasticsearch itself would before the refresh.
+// Only first pages are cached. Their cursor holds no point in time, just the position after the
+// last hit, so a cached first page continues like a fresh one.
+@Service
+public class PlanSearchCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanSearchCacheService.class);
+
+    private static final String ORG_VERSION_KEY_PREFIX = "plan:search-version:org:";
+    private static final String ALL_ORGS_VERSION_KEY = "plan:search-version";
+    private static final String UNKNOWN_ORG_VERSION_KEY = "plan:search-version:unknown-org";
+    private static final String ENTRY_KEY_PREFIX = "plan:search-cache:";
+
+    private final ElasticsearchService elasticsearchService;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Duration ttl;
+    private final Duration invalidationDelay;
+    // Version keys changed since their last bump, when they are due, and whether a bump is scheduled
+    private final Map<String, Due> pendingVersions = new ConcurrentHashMap<>();
+    private final AtomicBoolean bumpScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService invalidator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "plan-search-cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Cache<String, PlanSearchResponse> localCache;
+    private final Timer localHits;
+    private final Timer redisHits;
+    private final Timer misses;
+    private final Timer uncached;
+
+    // When a version key is due for a bump, in System.nanoTime: first for its earliest change
+    // not bumped yet, last for its latest change
+    private record Due(long first, long last) {
+    }
+
+    @Autowired
+    public PlanSearchCacheService(
+            ElasticsearchService elasticsearchService,
+            ReactiveStringRedisTemplate reactiveRedisTemplate,
+            RedisTemplate<String, String> redisTemplate,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${plan.search-cache.enabled:true}") boolean enabled,
+            @Value("${plan.search-cache.ttl:10m}") Duration ttl,
+            @Value("${plan.search-cache.local-max-entries:1000}") long localMaxEntries,
+            @Value("${plan.search-cache.invalidation-delay:2s}") Duration invalidationDelay) {
+        this.elasticsearchService = elasticsearchService;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.invalidationDelay = invalidationDelay;
+        // A local hit still reads the versions from Redis, but skips transferring and parsing the page
+        this.localCache = localMaxEntries > 0
+                ? Caffeine.newBuilder().maximumSize(localMaxEntries).expireAfterWrite(ttl).recordStats().build()
+                : null;
+        if (localCache != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, localCache, "plans.search-cache");
+        }
+        // Latency per source; the saving of a hit is the mean of source=elasticsearch minus its own
+        this.localHits = searchTimer(meterRegistry, "local");
+        this.redisHits = searchTimer(meterRegistry, "redis");
+        this.misses = searchTimer(meterRegistry, "elasticsearch");
+        this.uncached = searchTimer(meterRegistry, "uncached");
+    }
+
+    private static Timer searchTimer(MeterRegistry meterRegistry, String source) {
+        return Timer.builder("plan.search")
+                .description("Latency of /search by where the page came from")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+
+    // The page for the search, from the cache when the data it was computed from is unchanged
+    public CompletableFuture<PlanSearchResponse> search(ElasticsearchService.PlanSearch search) {
+        long start = System.nanoTime();
+        if (!enabled || search.cursor() != null) {
+            return elasticsearchService.searchPlans(search)
+                    .whenComplete((page, e) -> record(uncached, start));
+        }
+
+        String org = search.filter() != null ? search.filter().org() : null;
+        List<String> versionKeys = org != null
+                ? List.of(orgVersionKey(org), UNKNOWN_ORG_VERSION_KEY)
+                : List.of(ALL_ORGS_VERSION_KEY);
+        String query;
+        try {
+            query = normalize(search);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // The cache is an optimization: without Redis every search goes to Elasticsearch
+        return reactiveRedisTemplate.opsForValue().multiGet(versionKeys)
+                .onErrorResume(e -> {
+                    logger.warn("Search cache unavailable, searching without it: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .map(versions -> ENTRY_KEY_PREFIX + digest(versions + "|" + query))
+                .flatMap(key -> cached(key, start)
+                        .switchIfEmpty(Mono.defer(() -> Mono.fromFuture(() -> elasticsearchService.searchPlans(search))
+                                .flatMap(page -> store(key, page))
+                                .doOnNext(page -> record(misses, start)))))
+                .switchIfEmpty(Mono.defer(() -> Mono.fromFuture(() -> elasticsearchService.searchPlans(search))
+                        .doOnNext(page -> record(uncached, start))))
+                .toFuture();
+    }
+
+    private Mono<PlanSearchResponse> cached(String key, long start) {
+        PlanSearchResponse local = localCache != null ? localCache.getIfPresent(key) : null;
+        if (local != null) {
+            record(localHits, start);
+            return Mono.just(local);
+        }
+        return reactiveRedisTemplate.opsForValue().get(key)
+                .flatMap(json -> Mono.fromCallable(() -> objectMapper.readValue(json, PlanSearchResponse.class)))
+                .onErrorResume(e -> {
+                    logger.warn("Failed to read cached search page: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .doOnNext(page -> {
+                    if (localCache != null) {
+                        localCache.put(key, page);
+                    }
+                    record(redisHits, start);
+                });
+    }
+
+    private Mono<PlanSearchResponse> store(String key, PlanSearchResponse page) {
+        if (localCache != null) {
+            localCache.put(key, page);
+        }
+        return Mono.fromCallable(() -> objectMapper.writeValueAsString(page))
+                .flatMap(json -> reactiveRedisTemplate.opsForValue().set(key, json, ttl))
+                .onErrorResume(e -> {
+                    logger.warn("Failed to cache search page: {}", e.getMessage());
+                    return Mono.just(false);
+                })
+                .thenReturn(page);
+    }
+
+    // Called by the indexer once changes to plans of the given orgs are indexed; their pages are
+    // invalidated invalidation-delay later. Changes whose org is not known (deletes by plan id)
+    // invalidate the pages of every org.
+    public void changed(Collection<String> orgs, boolean unknownOrg) {
+        if (!enabled) {
+            return;
+        }
+        long due = System.nanoTime() + invalidationDelay.toNanos();
+        List<String> keys = new ArrayList<>();
+        keys.add(ALL_ORGS_VERSION_KEY);
+        if (unknownOrg) {
+            keys.add(UNKNOWN_ORG_VERSION_KEY);
+        }
+        for (String org : orgs) {
+            keys.add(orgVersionKey(org));
+        }
+        for (String key : keys) {
+            pendingVersions.merge(key, new Due(due, due), (pending, change) -> new Due(pending.first(), change.last()));
+        }
+        schedule(invalidationDelay.toNanos());
+    }
+
+    // Bumps whatever is still pending, so no change goes without invalidating its pages
+    @PreDestroy
+    public void stop() {
+        invalidator.shutdownNow();
+        // No change is due later than that
+        bump(System.nanoTime() + invalidationDelay.toNanos());
+    }
+
+    private void schedule(long delayNanos) {
+        if (bumpScheduled.compareAndSet(false, true)) {
+            invalidator.schedule(this::bumpPending, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void bumpPending() {
+        // Changes reported from here on schedule the next bump
+        bumpScheduled.set(false);
+        long now = System.nanoTime();
+        bump(now);
+        pendingVersions.values().stream()
+                .mapToLong(Due::first)
+                .min()
+                .ifPresent(first -> schedule(first - now));
+    }
+
+    // Bumps the keys due by now. A key changed again since its first change stays pending until
+    // its latest change is due, so a page cached from before that change is invalidated too.
+    private void bump(long now) {
+        List<String> keys = new ArrayList<>();
+        for (String key : pendingVersions.keySet()) {
+            pendingVersions.computeIfPresent(key, (k, due) -> {
+                if (due.first() - now > 0) {
+                    return due;
+                }
+                keys.add(k);
+                return due.last() - now > 0 ? new Due(due.last(), due.last()) : null;
+            });
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.stringCommands().incr(key.getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // Entries computed before the change are then served until they expire
+            logger.warn("Failed to bump search cache versions {}: {}", keys, e.getMessage());
+        }
+    }
+
+    // Org names are matched case-insensitively by the analyzed _org field
+    private static String orgVersionKey(String org) {
+        return ORG_VERSION_KEY_PREFIX + org.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // The filter as JSON, whose fields always come in the same order, with org in the case the
+    // version key uses, and the remaining parameters in a fixed form
+    private String normalize(ElasticsearchService.PlanSearch search) throws JsonProcessingException {
+        PlanFilter filter = search.filter();
+        if (filter != null && filter.org() != null) {
+            filter = new PlanFilter(filter.org().trim().toLowerCase(Locale.ROOT), filter.planType(), filter.serviceId(),
+                    filter.serviceName(), filter.creationDate(), filter.copay(), filter.deductible());
+        }
+        List<String> fields = search.fields() != null ? new ArrayList<>(search.fields()) : new ArrayList<>();
+        fields.replaceAll(String::trim);
+        fields.sort(null);
+        return String.join("|",
+                "filter=" + objectMapper.writeValueAsString(filter),
+                "fields=" + String.join(",", fields),
+                "size=" + (search.size() != null ? search.size() : ""),
+                "trackTotalHits=" + (search.trackTotalHits() != null ? search.trackTotalHits() : ""));
+    }
+
+    private static String digest(String value) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(sha1.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void record(Timer timer, long start) {
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.demo.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.CalendarInterval;
+import co.elastic.clients.elasticsearch._types.aggregations.DateHistogramBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.StatsAggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import com.example.demo.config.ElasticsearchIndexConfig;
+import com.example.demo.model.PlanFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Copay and deductible statistics of the plans matching a filter, overall or per org or plan type,
+// and the number of plans created per calendar interval. Everything comes from one size:0 search:
+// terms group the plan documents, from which the join layout steps to the plan cost share and,
+// through the linked services, to the service cost shares with children aggregations, and the
+// nested layout to the nested services with a nested aggregation. Stats and percentiles
+// aggregations compute the figures.
+@Service
+public class PlanStatsService {
+
+    private static final List<Double> PERCENTS = List.of(50.0, 90.0, 99.0);
+    private static final List<String> COST_SHARE_FIELDS = List.of("copay", "deductible");
+
+    private final ElasticsearchAsyncClient elasticsearchAsyncClient;
+    private final ObjectMapper objectMapper;
+    private final PlanIndexLayout indexLayout;
+
+    @Value("${plan.stats.default-groups:20}")
+    private int defaultGroups;
+
+    @Value("${plan.stats.max-groups:1000}")
+    private int maxGroups;
+
+    // groupBy is org, planType or null for no grouping; interval one of year, quarter, month, week
+    // or day, month when null; size the most groups returned, plan.stats.default-groups when null
+    public record PlanStatsQuery(PlanFilter filter, String groupBy, String interval, Integer size) {
+    }
+
+    @Autowired
+    public PlanStatsService(ElasticsearchAsyncClient elasticsearchAsyncClient, ObjectMapper objectMapper,
+            PlanIndexLayout indexLayout) {
+        this.elasticsearchAsyncClient = elasticsearchAsyncClient;
+        this.objectMapper = objectMapper;
+        this.indexLayout = indexLayout;
+    }
+
+    // Throws IllegalArgumentException for an unknown groupBy or interval or a malformed filter
+    public CompletableFuture<ObjectNode> stats(PlanStatsQuery stats) {
+        String groupField = groupField(stats.groupBy());
+        CalendarInterval interval = interval(stats.interval());
+        int size = stats.size() != null ? Math.max(1, Math.min(maxGroups, stats.size())) : defaultGroups;
+        Query query = PlanFilterQueries.compile(indexLayout, stats.filter());
+        Map<String, Aggregation> costShares = indexLayout == PlanIndexLayout.JOIN
+                ? joinCostShareAggregations()
+                : nestedCostShareAggregations();
+
+        return elasticsearchAsyncClient.search(s -> {
+            s.index(ElasticsearchIndexConfig.ALIAS)
+                    .size(0)
+                    .trackTotalHits(t -> t.enabled(true))
+                    .query(query)
+                    .aggregations("creationDates", a -> a.dateHistogram(d -> d
+                            .field("creationDate")
+                            .calendarInterval(interval)
+                            .format("yyyy-MM-dd")
+                            .minDocCount(1)));
+            if (groupField != null) {
+                s.aggregations("groups", a -> a
+                        .terms(t -> t.field(groupField).size(size))
+                        .aggregations(costShares));
+            } else {
+                s.aggregations(costShares);
+            }
+            return s;
+        }, Void.class).thenApply(response -> {
+            ObjectNode result = objectMapper.createObjectNode();
+            Map<String, Aggregate> aggregations = response.aggregations();
+            if (groupField != null) {
+                result.put("groupBy", stats.groupBy());
+                ArrayNode groups = result.putArray("groups");
+                for (StringTermsBucket bucket : aggregations.get("groups").sterms().buckets().array()) {
+                    ObjectNode group = groups.addObject().put("key", bucket.key().stringValue());
+                    group(group, bucket.docCount(), bucket.aggregations());
+                }
+                result.put("otherPlans", aggregations.get("groups").sterms().sumOtherDocCount());
+            } else {
+                long plans = response.hits().total() != null ? response.hits().total().value() : 0;
+                group(result, plans, aggregations);
+            }
+            ArrayNode creationDates = result.putArray("creationDates");
+            for (DateHistogramBucket bucket : aggregations.get("creationDates").dateHistogram().buckets().array()) {
+                creationDates.addObject()
+                        .put("date", bucket.keyAsString())
+                        .put("plans", bucket.docCount());
+            }
+            return result;
+        });
+    }
+
+    // The same statistics for the plan's own cost share and for the cost shares of its services
+    private static Map<String, Aggregation> joinCostShareAggregations() {
+        Map<String, Aggregation> figures = figures("");
+        Map<String, Aggregation> costShares = new LinkedHashMap<>();
+        costShares.put("planCostShares", Aggregation.of(a -> a
+                .children(c -> c.type("plancostShare"))
+                .aggregations(figures)));
+        costShares.put("serviceCostShares", Aggregation.of(a -> a
+                .children(c -> c.type("linkedPlanService"))
+                .aggregations("costShares", Aggregation.of(cs -> cs
+                        .children(c -> c.type("serviceCostShare"))
+                        .aggregations(figures)))));
+        return costShares;
+    }
+
+    // Every plan has one cost share, so a filter on its presence counts them as children does
+    private static Map<String, Aggregation> nestedCostShareAggregations() {
+        Map<String, Aggregation> costShares = new LinkedHashMap<>();
+        costShares.put("planCostShares", Aggregation.of(a -> a
+                .filter(f -> f.exists(e -> e.field("planCostShares.objectId")))
+                .aggregations(figures("planCostShares."))));
+        costShares.put("serviceCostShares", Aggregation.of(a -> a
+                .nested(n -> n.path("linkedPlanServices"))
+                .aggregations(figures("linkedPlanServices.planserviceCostShares."))));
+        return costShares;
+    }
+
+    private static Map<String, Aggregation> figures(String prefix) {
+        Map<String, Aggregation> figures = new LinkedHashMap<>();
+        for (String field : COST_SHARE_FIELDS) {
+            figures.put(field, Aggregation.of(a -> a.stats(st -> st.field(prefix + field))));
+            figures.put(field + "Percentiles", Aggregation.of(a -> a.percentiles(p -> p
+                    .field(prefix + field)
+                    .percents(PERCENTS))));
+        }
+        return figures;
+    }
+
+    private void group(ObjectNode group, long plans, Map<String, Aggregate> aggregations) {
+        group.put("plans", plans);
+        Aggregate plan = aggregations.get("planCostShares");
+        Aggregate services = aggregations.get("serviceCostShares");
+        if (indexLayout == PlanIndexLayout.JOIN) {
+            Aggregate service = services.children().aggregations().get("costShares");
+            group.set("planCostShares", costShares(plan.children().docCount(), plan.children().aggregations()));
+            group.set("serviceCostShares", costShares(service.children().docCount(), service.children().aggregations()));
+        } else {
+            group.set("planCostShares", costShares(plan.filter().docCount(), plan.filter().aggregations()));
+            group.set("serviceCostShares", costShares(services.nested().docCount(), services.nested().aggregations()));
+        }
+    }
+
+    private ObjectNode costShares(long count, Map<String, Aggregate> aggregations) {
+        ObjectNode costShares = objectMapper.createObjectNode().put("count", count);
+        for (String field : COST_SHARE_FIELDS) {
+            StatsAggregate stats = aggregations.get(field).stats();
+            ObjectNode figures = costShares.putObject(field);
+            // min, max and avg are undefined without values
+            if (stats.count() == 0) {
+                continue;
+            }
+            figures.put("min", stats.min()).put("max", stats.max()).put("avg", stats.avg()).put("sum", stats.sum());
+            Map<String, String> percentiles = aggregations.get(field + "Percentiles").tdigestPercentiles().values().keyed();
+            for (Double percent : PERCENTS) {
+                String value = percentiles.get(String.valueOf(percent));
+                if (value != null) {
+                    figures.put("p" + percent.intValue(), Double.parseDouble(value));
+                }
+            }
+        }
+        return costShares;
+    }
+
+    private static String groupField(String groupBy) {
+        if (groupBy == null) {
+            return null;
+        }
+        return switch (groupBy) {
+            case "org" -> "_org.keyword";
+            case "planType" -> "planType";
+            default -> throw new IllegalArgumentException("groupBy must be org or planType");
+        };
+    }
+
+    private static CalendarInterval interval(String interval) {
+        if (interval == null) {
+            return CalendarInterval.Month;
+        }
+        return switch (interval.toLowerCase(Locale.ROOT)) {
+            case "year" -> CalendarInterval.Year;
+            case "quarter" -> CalendarInterval.Quarter;
+            case "month" -> CalendarInterval.Month;
+            case "week" -> CalendarInterval.Week;
+            case "day" -> CalendarInterval.Day;
+            default -> throw new IllegalArgumentException("interval must be year, quarter, month, week or day");
+        };
+    }
+}
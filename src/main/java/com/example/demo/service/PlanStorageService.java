@@ -0,0 +1,905 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.output.ArrayOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+@Service
+public class PlanStorageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanStorageService.class);
+
+    // Hash of nested objectId -> objectId of the plan that owns it
+    public static final String CHILD_INDEX_KEY = "plan:child-index";
+    private static final String CHILD_INDEX_REBUILD_KEY = CHILD_INDEX_KEY + ":rebuild";
+    // Exists while a rebuild runs; writes then change the rebuilt index as well
+    private static final String CHILD_INDEX_REBUILDING_KEY = CHILD_INDEX_KEY + ":rebuilding";
+    private static final int SCAN_BATCH_SIZE = 500;
+    // Child index entries per HSET of a write: the script unpacks every command onto the Lua C
+    // stack, which holds about 8000 values
+    private static final int CHILD_INDEX_BATCH_SIZE = 1000;
+
+    // Stream of index changes, appended by the same script that writes the plan and drained
+    // into RabbitMQ by PlanOutboxRelay
+    public static final String OUTBOX_KEY = "plan:outbox";
+    static final String OUTBOX_PAYLOAD_FIELD = "payload";
+
+    // Normalized layout: every nested object with an objectId is stored once under the digest
+    // of its content, and the plan root references it as {"$ref": digest}
+    static final String NODE_KEY_PREFIX = "plan:node:";
+    static final String NODE_REFS_KEY = "plan:node-refs";
+    private static final String REF_FIELD = "$ref";
+    static final String NORMALIZED_LAYOUT = "normalized";
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    // Each plan is a hash, so the ETag can be read and checked without loading the body
+    static final String DATA_FIELD = "data";
+    private static final String METADATA_FIELD = "metadata";
+    static final String ETAG_FIELD = "etag";
+    static final String LAYOUT_FIELD = "layout";
+    static final List<Object> PLAN_FIELDS = List.of(DATA_FIELD, METADATA_FIELD, ETAG_FIELD, LAYOUT_FIELD);
+    private static final byte[] DATA_BYTES = DATA_FIELD.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ETAG_BYTES = ETAG_FIELD.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LAYOUT_BYTES = LAYOUT_FIELD.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SCAN_COUNT = "COUNT".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SCAN_TYPE = "TYPE".getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final PlanCacheService planCacheService;
+    private final ObjectMapper objectMapper;
+    private final PlanIndexLayout indexLayout;
+    private final RedisScript<Long> writeScript;
+
+    // "document" stores each plan as one blob; "normalized" stores each object of the plan
+    // graph under its own key. Reads understand both, so the mode can be switched at any time.
+    @Value("${plan.storage.mode:document}")
+    private String storageMode;
+
+    @Autowired
+    public PlanStorageService(RedisTemplate<String, String> redisTemplate, PlanCacheService planCacheService,
+            ObjectMapper objectMapper, PlanIndexLayout indexLayout) {
+        this.redisTemplate = redisTemplate;
+        this.planCacheService = planCacheService;
+        this.objectMapper = objectMapper;
+        this.indexLayout = indexLayout;
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("redis/plan-write.lua")));
+        script.setResultType(Long.class);
+        this.writeScript = script;
+    }
+
+    public StoredPlan getPlan(String planId) {
+        return readConsistent(() -> {
+            try {
+                return toStoredPlan(redisTemplate.opsForHash().multiGet(planId, PLAN_FIELDS));
+            } catch (InvalidDataAccessApiUsageException e) {
+                return getLegacyPlan(planId, e);
+            }
+        });
+    }
+
+    // Reads several plans in one pipelined round trip; plans that do not exist are left out.
+    // A batch that hits a legacy string plan is read again one plan at a time.
+    public Map<String, StoredPlan> getPlans(Collection<String> planIds) {
+        List<String> ids = new ArrayList<>(planIds);
+        Map<String, StoredPlan> plans = new HashMap<>();
+        List<?> values;
+        try {
+            values = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    for (String planId : ids) {
+                        operations.opsForHash().multiGet((K) planId, PLAN_FIELDS);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            for (String planId : ids) {
+                StoredPlan plan = getPlan(planId);
+                if (plan != null) {
+                    plans.put(planId, plan);
+                }
+            }
+            return plans;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            StoredPlan plan;
+            try {
+                plan = toStoredPlan((List<?>) values.get(i));
+            } catch (MissingNodeException e) {
+                plan = getPlan(ids.get(i));
+            }
+            if (plan != null) {
+                plans.put(ids.get(i), plan);
+            }
+        }
+        return plans;
+    }
+
+    // Reads the stored data bytes and ETag without parsing them; only normalized plans need assembling
+    public PlanBody getPlanBody(String planId) {
+        return readConsistent(() -> readPlanBody(planId));
+    }
+
+    private PlanBody readPlanBody(String planId) {
+        List<byte[]> fields;
+        try {
+            fields = redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.hashCommands()
+                    .hMGet(planId.getBytes(StandardCharsets.UTF_8), DATA_BYTES, ETAG_BYTES, LAYOUT_BYTES));
+        } catch (InvalidDataAccessApiUsageException e) {
+            StoredPlan plan = getLegacyPlan(planId, e);
+            return plan != null
+                    ? new PlanBody(writeBytes(plan.getData()), plan.getEtag())
+                    : null;
+        }
+        if (fields == null || fields.get(0) == null || fields.get(1) == null) {
+            return null;
+        }
+
+        String etag = new String(fields.get(1), StandardCharsets.UTF_8);
+        if (fields.get(2) != null) {
+            ObjectNode data = resolve(readObject(fields.get(0)), new HashSet<>());
+            return new PlanBody(writeBytes(data), etag);
+        }
+        return new PlanBody(fields.get(0), etag);
+    }
+
+    // Reads only the ETag field, or returns null when the plan does not exist
+    public String getEtag(String planId) {
+        try {
+            Object etag = redisTemplate.opsForHash().get(planId, ETAG_FIELD);
+            return etag != null ? etag.toString() : null;
+        } catch (InvalidDataAccessApiUsageException e) {
+            StoredPlan plan = getLegacyPlan(planId, e);
+            return plan != null ? plan.getEtag() : null;
+        }
+    }
+
+    // Plans written before the hash layout are single JSON strings; they are converted on their next write
+    private StoredPlan getLegacyPlan(String planId, InvalidDataAccessApiUsageException e) {
+        if (e.getMessage() == null || !e.getMessage().contains("WRONGTYPE")) {
+            throw e;
+        }
+        String value = redisTemplate.opsForValue().get(planId);
+        if (value == null) {
+            return null;
+        }
+        ObjectNode root = readObject(value);
+        return toStoredPlan(Arrays.asList(root.get(DATA_FIELD).toString(), root.get(METADATA_FIELD).toString(),
+                root.get(ETAG_FIELD).asText(), root.path(LAYOUT_FIELD).textValue()));
+    }
+
+    // Stores the plan and moves the child index and node references from previous (null when
+    // the plan is new) to planData. data is planData as already serialized by the caller and is
+    // stored as is in document mode; in normalized mode only nodes the previous version did not
+    // already reference are written.
+    // The write is a compare-and-set: it only applies while the stored plan is still previous,
+    // and returns false without changing anything once another write got there first. The
+    // index changes between the two versions are queued in the outbox by the same script.
+    public boolean savePlan(String planId, ObjectNode planData, String data, ObjectNode metadata, String etag,
+            StoredPlan previous) {
+        return apply(planId, saveCommands(planId, planData, data, metadata, etag, previous));
+    }
+
+    // One savePlan call, for writing many plans at once
+    public record PlanWrite(String planId, ObjectNode planData, String data, ObjectNode metadata, String etag,
+            StoredPlan previous) {
+    }
+
+    // Runs the writes in one pipelined round trip, each still its own atomic compare-and-set.
+    // Element i of the result is false when write i lost to a concurrent write.
+    public List<Boolean> savePlans(List<PlanWrite> writes) {
+        List<byte[][]> commands = new ArrayList<>(writes.size());
+        List<Integer> keyCounts = new ArrayList<>(writes.size());
+        for (PlanWrite write : writes) {
+            WriteCommands args = saveCommands(write.planId(), write.planData(), write.data(), write.metadata(),
+                    write.etag(), write.previous());
+            commands.add(args.keysAndArgs());
+            keyCounts.add(args.keys().size());
+        }
+
+        // EVALSHA has no EVAL fallback inside a pipeline, so the script is loaded up front
+        redisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptingCommands().scriptLoad(writeScript.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < commands.size(); i++) {
+                connection.scriptingCommands().evalSha(writeScript.getSha1(), ReturnType.INTEGER, keyCounts.get(i),
+                        commands.get(i));
+            }
+            return null;
+        });
+
+        List<Boolean> applied = new ArrayList<>(writes.size());
+        for (int i = 0; i < writes.size(); i++) {
+            boolean saved = results.get(i) instanceof Long result && result == 1L;
+            if (saved) {
+                planCacheService.invalidate(writes.get(i).planId());
+            }
+            applied.add(saved);
+        }
+        return applied;
+    }
+
+    // Deletes the plan unless it changed since previous was read; returns false in that case
+    public boolean deletePlan(String planId, StoredPlan previous) {
+        return apply(planId, deleteCommands(planId, previous));
+    }
+
+    // The write script arguments for savePlan; ReactivePlanStorageService runs the same ones
+    WriteCommands saveCommands(String planId, ObjectNode planData, String data, ObjectNode metadata, String etag,
+            StoredPlan previous) {
+        Set<String> previousChildIds = previous != null ? childIds(previous.getData()) : Collections.emptySet();
+        Set<String> previousDigests = previous != null ? previous.getNodeDigests() : Collections.emptySet();
+        Set<String> childIds = childIds(planData);
+
+        List<String> hset = new ArrayList<>(List.of("HSET", planId,
+                METADATA_FIELD, metadata.toString(),
+                ETAG_FIELD, etag));
+
+        WriteCommands args = new WriteCommands();
+        expectVersion(args, planId, previous);
+        Map<String, String> nodes = new LinkedHashMap<>();
+        if (NORMALIZED_LAYOUT.equalsIgnoreCase(storageMode)) {
+            Collections.addAll(hset, LAYOUT_FIELD, NORMALIZED_LAYOUT);
+            Collections.addAll(hset, DATA_FIELD, normalize(planData, nodes, true).toString());
+            for (Map.Entry<String, String> node : nodes.entrySet()) {
+                if (!previousDigests.contains(node.getKey())) {
+                    args.command(1, "SET", NODE_KEY_PREFIX + node.getKey(), node.getValue(), "NX");
+                    args.command(1, "HINCRBY", NODE_REFS_KEY, node.getKey(), "1");
+                }
+            }
+        } else {
+            Collections.addAll(hset, DATA_FIELD, data);
+        }
+        // DEL first so no field of the previous layout (or a legacy string value) survives
+        args.command(1, "DEL", planId);
+        args.command(1, hset.toArray(new String[0]));
+        releaseNodes(args, previousDigests, nodes.keySet());
+
+        removeChildEntries(args, planId, previousChildIds, childIds);
+        List<String> children = new ArrayList<>(childIds);
+        for (int from = 0; from < children.size(); from += CHILD_INDEX_BATCH_SIZE) {
+            List<String> entries = new ArrayList<>();
+            for (String childId : children.subList(from, Math.min(children.size(), from + CHILD_INDEX_BATCH_SIZE))) {
+                entries.add(childId);
+                entries.add(planId);
+            }
+            childIndexCommand(args, "HSET", entries.toArray(new String[0]));
+        }
+        appendOutbox(args, planId, previous != null ? previous.getData() : null, planData);
+        publishInvalidation(args, planId);
+        return args;
+    }
+
+    WriteCommands deleteCommands(String planId, StoredPlan previous) {
+        WriteCommands args = new WriteCommands();
+        expectVersion(args, planId, previous);
+        args.command(1, "DEL", planId);
+        releaseNodes(args, previous.getNodeDigests(), Collections.emptySet());
+        removeChildEntries(args, planId, childIds(previous.getData()), Collections.emptySet());
+        appendOutbox(args, planId, previous.getData(), null);
+        publishInvalidation(args, planId);
+        return args;
+    }
+
+    // The outbox entry commits or fails together with the write, so the index can neither miss
+    // a stored change nor see one that lost its compare-and-set. Writes that change no indexed
+    // document add no entry.
+    private void appendOutbox(WriteCommands args, String planId, JsonNode previous, JsonNode current) {
+        ObjectNode changes = PlanIndexDocuments.changes(indexLayout, planId, previous, current);
+        if (!changes.path(PlanIndexDocuments.CHANGES_OPERATION).isEmpty()) {
+            args.command(1, "XADD", OUTBOX_KEY, "*", OUTBOX_PAYLOAD_FIELD, changes.toString());
+        }
+    }
+
+    // The script checks the stored ETag before it writes anything; no previous plan means none may exist
+    private static void expectVersion(WriteCommands args, String planId, StoredPlan previous) {
+        args.command(1, "ETAGIS", planId, previous != null ? previous.getEtag() : "");
+    }
+
+    // Returns the plan that owns the given nested objectId, or null when it is not indexed
+    public String findOwningPlan(String objectId) {
+        Object planId = redisTemplate.opsForHash().get(CHILD_INDEX_KEY, objectId);
+        return planId != null ? planId.toString() : null;
+    }
+
+    // Drops an index entry that turned out to be stale, unless a concurrent write re-pointed it
+    public void removeChildEntry(String objectId, String planId) {
+        apply(removeChildEntryCommands(objectId, planId));
+    }
+
+    static WriteCommands removeChildEntryCommands(String objectId, String planId) {
+        WriteCommands args = new WriteCommands();
+        childIndexCommand(args, "HDELIFEQ", objectId, planId);
+        return args;
+    }
+
+    // Changes the child index, and while a rebuild runs the index it builds as well, so a write
+    // made during the rebuild's scan survives the rebuilt index replacing the live one
+    private static void childIndexCommand(WriteCommands args, String command, String... arguments) {
+        List<String> live = new ArrayList<>();
+        Collections.addAll(live, command, CHILD_INDEX_KEY);
+        Collections.addAll(live, arguments);
+        args.command(1, live.toArray(new String[0]));
+        List<String> rebuild = new ArrayList<>();
+        Collections.addAll(rebuild, "IFEXISTS", CHILD_INDEX_REBUILDING_KEY, CHILD_INDEX_REBUILD_KEY, command);
+        Collections.addAll(rebuild, arguments);
+        args.command(2, rebuild.toArray(new String[0]));
+    }
+
+    // Rebuilds the child index from the stored plans using SCAN, so Redis is never blocked by
+    // KEYS. The new index is built under a temporary key and swapped in with RENAME. Writes
+    // change it too while the rebuild runs, so none that land during the scan is lost.
+    public int rebuildChildIndex() {
+        redisTemplate.delete(CHILD_INDEX_REBUILD_KEY);
+        redisTemplate.opsForValue().set(CHILD_INDEX_REBUILDING_KEY, String.valueOf(System.currentTimeMillis()));
+        try {
+            int plans = scanPlans(DataType.HASH) + scanPlans(DataType.STRING);
+
+            if (Boolean.TRUE.equals(redisTemplate.hasKey(CHILD_INDEX_REBUILD_KEY))) {
+                redisTemplate.rename(CHILD_INDEX_REBUILD_KEY, CHILD_INDEX_KEY);
+            } else {
+                redisTemplate.delete(CHILD_INDEX_KEY);
+            }
+            logger.info("Rebuilt child index from {} plan(s)", plans);
+            return plans;
+        } finally {
+            redisTemplate.delete(CHILD_INDEX_REBUILDING_KEY);
+            // Whatever writes added after the RENAME and before the flag went away is in the live index too
+            redisTemplate.delete(CHILD_INDEX_REBUILD_KEY);
+        }
+    }
+
+    // A page of stored plans, as the JSON of their data, their ETags in the same order, and the
+    // cursor of the next page; the cursor is null after the last page
+    public record PlanPage(List<byte[]> plans, List<String> etags, String cursor) {
+    }
+
+    // Cursor of the first page of exportPlans
+    public static final String EXPORT_START = exportCursor(DataType.HASH, "0");
+    // Cursor of the first page of legacy string plans, where the walk over hashes ends
+    public static final String EXPORT_STRINGS_START = exportCursor(DataType.STRING, "0");
+
+    // Returns the plans of one SCAN step of about count keys. The cursor is an opaque token for a
+    // position in the keyspace: hashes are walked first, then legacy string plans. Like any SCAN,
+    // plans written while the walk runs may or may not be included, but none present throughout
+    // is missed. Values are fetched with one pipelined HMGET round trip, strings with one MGET.
+    public PlanPage exportPlans(String cursor, int count) {
+        String[] position = parseExportCursor(cursor);
+        DataType type = DataType.fromCode(position[0]);
+        // A plain SCAN carrying the cursor between requests. Spring Data has no output type for a
+        // raw SCAN reply, so the connection is asked for the nested array explicitly.
+        List<?> step = redisTemplate.execute((RedisCallback<List<?>>) connection ->
+                (List<?>) ((LettuceConnection) connection).execute("SCAN", new ArrayOutput<>(ByteArrayCodec.INSTANCE),
+                        position[1].getBytes(StandardCharsets.UTF_8),
+                        SCAN_COUNT, String.valueOf(count).getBytes(StandardCharsets.UTF_8),
+                        SCAN_TYPE, type.code().getBytes(StandardCharsets.UTF_8)), true);
+        String next = new String((byte[]) step.get(0), StandardCharsets.UTF_8);
+        List<String> keys = new ArrayList<>();
+        for (Object value : (List<?>) step.get(1)) {
+            String key = new String((byte[]) value, StandardCharsets.UTF_8);
+            if (!key.startsWith("plan:")) {
+                keys.add(key);
+            }
+        }
+
+        List<byte[]> plans = new ArrayList<>(keys.size());
+        List<String> etags = new ArrayList<>(keys.size());
+        if (!keys.isEmpty() && type == DataType.HASH) {
+            List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.hashCommands().hMGet(key.getBytes(StandardCharsets.UTF_8), DATA_BYTES, ETAG_BYTES,
+                            LAYOUT_BYTES);
+                }
+                return null;
+            });
+            for (int i = 0; i < keys.size(); i++) {
+                List<?> fields = (List<?>) values.get(i);
+                // Hashes without a plan (rate limit buckets etc.) have no data and ETag
+                if (fields.get(0) == null || fields.get(1) == null) {
+                    continue;
+                }
+                PlanBody body;
+                if (fields.get(2) == null) {
+                    body = new PlanBody(fields.get(0).toString().getBytes(StandardCharsets.UTF_8), fields.get(1).toString());
+                } else {
+                    try {
+                        body = new PlanBody(writeBytes(resolve(readObject(fields.get(0).toString()), new HashSet<>())),
+                                fields.get(1).toString());
+                    } catch (MissingNodeException e) {
+                        // Rewritten since the HMGET; read again, or skip it when it is gone by now
+                        body = getPlanBody(keys.get(i));
+                    }
+                }
+                if (body != null) {
+                    plans.add(body.getData());
+                    etags.add(body.getEtag());
+                }
+            }
+        } else if (!keys.isEmpty()) {
+            List<String> values = redisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                StoredPlan plan = parseStoredPlan(keys.get(i), values.get(i));
+                if (plan != null) {
+                    plans.add(writeBytes(plan.getData()));
+                    etags.add(plan.getEtag());
+                }
+            }
+        }
+
+        if (!"0".equals(next)) {
+            return new PlanPage(plans, etags, exportCursor(type, next));
+        }
+        return new PlanPage(plans, etags, type == DataType.HASH ? EXPORT_STRINGS_START : null);
+    }
+
+    // The given plan ids that have no plan in Redis, checked in one pipelined round trip
+    public Set<String> missingPlans(Collection<String> planIds) {
+        List<String> ids = new ArrayList<>(planIds);
+        List<Object> exists = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String planId : ids) {
+                connection.keyCommands().exists(planId.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        Set<String> missing = new LinkedHashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (!Boolean.TRUE.equals(exists.get(i))) {
+                missing.add(ids.get(i));
+            }
+        }
+        return missing;
+    }
+
+    // Throws IllegalArgumentException unless cursor came from exportPlans
+    public static void checkExportCursor(String cursor) {
+        parseExportCursor(cursor);
+    }
+
+    private static String exportCursor(DataType type, String scanCursor) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((type.code() + ":" + scanCursor).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] parseExportCursor(String cursor) {
+        String[] position;
+        try {
+            position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 2);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid export cursor", e);
+        }
+        if (position.length != 2
+                || !(DataType.HASH.code().equals(position[0]) || DataType.STRING.code().equals(position[0]))
+                || !position[1].matches("\\d+")) {
+            throw new IllegalArgumentException("Invalid export cursor");
+        }
+        return position;
+    }
+
+    // Plans are hashes, apart from legacy plans stored as strings
+    private int scanPlans(DataType type) {
+        int plans = 0;
+        ScanOptions options = ScanOptions.scanOptions().type(type).count(SCAN_BATCH_SIZE).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            List<String> batch = new ArrayList<>(SCAN_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                if (!key.startsWith("plan:")) {
+                    batch.add(key);
+                }
+                if (batch.size() == SCAN_BATCH_SIZE) {
+                    plans += indexBatch(batch, type);
+                    batch.clear();
+                }
+            }
+            plans += indexBatch(batch, type);
+        }
+        return plans;
+    }
+
+    private int indexBatch(List<String> keys, DataType type) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        List<?> values;
+        if (type == DataType.HASH) {
+            values = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    for (String key : keys) {
+                        operations.opsForHash().multiGet((K) key, PLAN_FIELDS);
+                    }
+                    return null;
+                }
+            });
+        } else {
+            values = redisTemplate.opsForValue().multiGet(keys);
+        }
+
+        Map<String, String> entries = new HashMap<>();
+        int plans = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            StoredPlan plan = parseStoredPlan(keys.get(i), values.get(i));
+            if (plan == null) {
+                continue;
+            }
+            plans++;
+            for (String childId : childIds(plan.getData())) {
+                entries.put(childId, keys.get(i));
+            }
+        }
+        if (!entries.isEmpty()) {
+            redisTemplate.opsForHash().putAll(CHILD_INDEX_REBUILD_KEY, entries);
+        }
+        return plans;
+    }
+
+    // Returns the stored plan, or null when the value is not a plan (rate limit counters etc.)
+    private StoredPlan parseStoredPlan(String key, Object value) {
+        try {
+            if (value instanceof List<?> fields) {
+                return toStoredPlan(fields);
+            }
+            if (value instanceof String legacy && legacy.startsWith("{")) {
+                ObjectNode root = readObject(legacy);
+                if (root.has(DATA_FIELD) && root.has(ETAG_FIELD)) {
+                    return toStoredPlan(Arrays.asList(root.get(DATA_FIELD).toString(),
+                            root.get(METADATA_FIELD).toString(), root.get(ETAG_FIELD).asText(),
+                            root.path(LAYOUT_FIELD).textValue()));
+                }
+            }
+        } catch (MissingNodeException e) {
+            return getPlan(key);
+        } catch (Exception e) {
+            logger.warn("Skipping unreadable value under key {}: {}", key, e.getMessage());
+        }
+        return null;
+    }
+
+    // Builds a StoredPlan from the data, metadata, etag and layout fields, or null when data is missing
+    StoredPlan toStoredPlan(List<?> fields) {
+        if (fields == null || fields.get(0) == null || fields.get(2) == null) {
+            return null;
+        }
+        ObjectNode data = readObject(fields.get(0).toString());
+        Set<String> digests = new HashSet<>();
+        if (NORMALIZED_LAYOUT.equals(fields.get(3))) {
+            data = resolve(data, digests);
+        }
+        return new StoredPlan(data, readObject(fields.get(1).toString()), fields.get(2).toString(), digests);
+    }
+
+    private ObjectNode readObject(String json) {
+        try {
+            return (ObjectNode) objectMapper.readTree(json);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse stored plan: " + e.getMessage(), e);
+        }
+    }
+
+    private ObjectNode readObject(byte[] json) {
+        try {
+            return (ObjectNode) objectMapper.readTree(json);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse stored plan: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] writeBytes(JsonNode json) {
+        try {
+            return objectMapper.writeValueAsBytes(json);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize plan: " + e.getMessage(), e);
+        }
+    }
+
+    // Helper method to split a plan into content-addressed nodes. Children are normalized
+    // first, so a node's digest covers its whole subtree and identical objects share one key.
+    private JsonNode normalize(JsonNode value, Map<String, String> nodes, boolean root) {
+        if (value.isObject()) {
+            ObjectNode copy = objectMapper.createObjectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = value.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                copy.set(field.getKey(), normalize(field.getValue(), nodes, false));
+            }
+            if (root || !value.has("objectId")) {
+                return copy;
+            }
+            String body = canonical(copy);
+            String digest = digest(body);
+            nodes.put(digest, body);
+            return objectMapper.createObjectNode().put(REF_FIELD, digest);
+        } else if (value.isArray()) {
+            ArrayNode copy = objectMapper.createArrayNode();
+            for (JsonNode item : value) {
+                copy.add(normalize(item, nodes, false));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    // A normalized plan is read in several steps, the root first and then its nodes a tree level
+    // at a time, so a write that lands in between may already have released nodes the root that
+    // was read still references. The read is then repeated from the root, which by now carries
+    // the new ETag; a node still missing after MAX_READ_ATTEMPTS reads is lost for good.
+    private static final class MissingNodeException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        MissingNodeException(String digest) {
+            super("Missing plan node " + digest);
+        }
+    }
+
+    private <T> T readConsistent(Supplier<T> read) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return read.get();
+            } catch (MissingNodeException e) {
+                if (attempt >= MAX_READ_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Helper method to load every node a normalized plan references, one MGET per tree level.
+    // Throws MissingNodeException when a node is gone, see readConsistent.
+    private ObjectNode resolve(ObjectNode data, Set<String> digests) {
+        Map<String, JsonNode> nodes = new HashMap<>();
+        Set<String> pending = new LinkedHashSet<>();
+        collectRefs(data, pending);
+
+        while (!pending.isEmpty()) {
+            List<String> batch = new ArrayList<>(pending);
+            pending.clear();
+            List<String> keys = new ArrayList<>(batch.size());
+            for (String digest : batch) {
+                keys.add(NODE_KEY_PREFIX + digest);
+            }
+            List<String> values = redisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < batch.size(); i++) {
+                if (values.get(i) == null) {
+                    throw new MissingNodeException(batch.get(i));
+                }
+                ObjectNode node = readObject(values.get(i));
+                nodes.put(batch.get(i), node);
+                collectRefs(node, pending);
+            }
+            pending.removeAll(nodes.keySet());
+        }
+
+        digests.addAll(nodes.keySet());
+        return (ObjectNode) replaceRefs(data, nodes);
+    }
+
+    private static void collectRefs(JsonNode value, Set<String> refs) {
+        if (value.has(REF_FIELD)) {
+            refs.add(value.get(REF_FIELD).asText());
+            return;
+        }
+        for (JsonNode child : value) {
+            collectRefs(child, refs);
+        }
+    }
+
+    private JsonNode replaceRefs(JsonNode value, Map<String, JsonNode> nodes) {
+        if (value.isObject()) {
+            if (value.has(REF_FIELD)) {
+                return replaceRefs(nodes.get(value.get(REF_FIELD).asText()), nodes);
+            }
+            ObjectNode copy = objectMapper.createObjectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = value.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                copy.set(field.getKey(), replaceRefs(field.getValue(), nodes));
+            }
+            return copy;
+        } else if (value.isArray()) {
+            ArrayNode copy = objectMapper.createArrayNode();
+            for (JsonNode item : value) {
+                copy.add(replaceRefs(item, nodes));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    // Serializes with sorted keys so equal objects always produce the same digest
+    private String canonical(JsonNode value) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            writeCanonical(generator, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private void writeCanonical(JsonGenerator generator, JsonNode value) throws IOException {
+        if (value.isObject()) {
+            List<String> keys = new ArrayList<>(value.size());
+            value.fieldNames().forEachRemaining(keys::add);
+            Collections.sort(keys);
+            generator.writeStartObject();
+            for (String key : keys) {
+                generator.writeFieldName(key);
+                writeCanonical(generator, value.get(key));
+            }
+            generator.writeEndObject();
+        } else if (value.isArray()) {
+            generator.writeStartArray();
+            for (JsonNode item : value) {
+                writeCanonical(generator, item);
+            }
+            generator.writeEndArray();
+        } else {
+            objectMapper.writeTree(generator, value);
+        }
+    }
+
+    private static String digest(String body) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(sha1.digest(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Drops one reference from every node the plan no longer uses; the node is deleted with its last reference
+    private void releaseNodes(WriteCommands args, Set<String> previousDigests, Set<String> digests) {
+        for (String digest : previousDigests) {
+            if (!digests.contains(digest)) {
+                args.command(2, "DECRDEL", NODE_REFS_KEY, NODE_KEY_PREFIX + digest, digest);
+            }
+        }
+    }
+
+    // Collects the objectId of every object nested anywhere below the plan root
+    public static Set<String> childIds(JsonNode planData) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (JsonNode value : planData) {
+            collectChildIds(value, ids);
+        }
+        return ids;
+    }
+
+    private static void collectChildIds(JsonNode value, Set<String> ids) {
+        JsonNode objectId = value.get("objectId");
+        if (objectId != null && !objectId.isNull()) {
+            ids.add(objectId.asText());
+        }
+        for (JsonNode child : value) {
+            collectChildIds(child, ids);
+        }
+    }
+
+    private void removeChildEntries(WriteCommands args, String planId, Set<String> previousChildIds, Set<String> childIds) {
+        for (String childId : previousChildIds) {
+            if (!childIds.contains(childId)) {
+                childIndexCommand(args, "HDELIFEQ", childId, planId);
+            }
+        }
+    }
+
+    // The KEYS and ARGV of one run of the write script. Every key a command touches is declared
+    // in KEYS, once, and ARGV refers to it by position, so proxies, ACL key patterns and the
+    // cluster slot check all see what the script touches.
+    static final class WriteCommands {
+        private final List<String> keys = new ArrayList<>();
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final List<String> args = new ArrayList<>();
+
+        // parts is the command followed by its arguments, of which the first keyCount are keys
+        void command(int keyCount, String... parts) {
+            args.add(String.valueOf(parts.length));
+            args.add(String.valueOf(keyCount));
+            args.add(parts[0]);
+            for (int i = 1; i < parts.length; i++) {
+                args.add(i <= keyCount ? String.valueOf(position(parts[i])) : parts[i]);
+            }
+        }
+
+        private int position(String key) {
+            return positions.computeIfAbsent(key, k -> {
+                keys.add(k);
+                return keys.size();
+            });
+        }
+
+        List<String> keys() {
+            return keys;
+        }
+
+        List<String> args() {
+            return args;
+        }
+
+        // KEYS followed by ARGV, as EVALSHA takes them
+        byte[][] keysAndArgs() {
+            byte[][] keysAndArgs = new byte[keys.size() + args.size()][];
+            int i = 0;
+            for (String key : keys) {
+                keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+            }
+            for (String arg : args) {
+                keysAndArgs[i++] = arg.getBytes(StandardCharsets.UTF_8);
+            }
+            return keysAndArgs;
+        }
+    }
+
+    // Returns false when an ETAGIS precondition failed and nothing was written
+    private boolean apply(WriteCommands args) {
+        Long result = redisTemplate.execute(writeScript, args.keys(), args.args().toArray());
+        return result != null && result == 1L;
+    }
+
+    // Every plan write tells the other replicas' near-caches to drop the plan
+    private static void publishInvalidation(WriteCommands args, String planId) {
+        args.command(0, "PUBLISH", PlanCacheService.INVALIDATION_CHANNEL, planId);
+    }
+
+    RedisScript<Long> getWriteScript() {
+        return writeScript;
+    }
+
+    // Applies a write to a plan and drops it from this replica's near-cache as well
+    private boolean apply(String planId, WriteCommands args) {
+        if (!apply(args)) {
+            return false;
+        }
+        planCacheService.invalidate(planId);
+        return true;
+    }
+}
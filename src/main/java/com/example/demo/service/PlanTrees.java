@@ -0,0 +1,156 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+// Structural edits on plan trees, shared by the servlet and the reactive plan API so both
+// merge and remove children the same way
+public final class PlanTrees {
+
+    private PlanTrees() {
+    }
+
+    // Helper method to deep merge the patch into target, which is modified in place
+    public static ObjectNode deepMerge(ObjectNode target, ObjectNode patch) {
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> entry = fields.next();
+            String key = entry.getKey();
+            JsonNode patchValue = entry.getValue();
+            JsonNode existingValue = target.get(key);
+
+            if (patchValue.isObject() && existingValue != null && existingValue.isObject()) {
+                // Recursively merge nested objects
+                deepMerge((ObjectNode) existingValue, (ObjectNode) patchValue);
+            } else if (patchValue.isArray() && existingValue != null && existingValue.isArray()) {
+                // Handle arrays with special merge logic
+                mergeArrays((ArrayNode) existingValue, (ArrayNode) patchValue);
+            } else {
+                // For primitive values or new fields, use the patch value
+                target.set(key, patchValue);
+            }
+        }
+
+        return target;
+    }
+
+    // Helper method to merge arrays with specific rules
+    private static void mergeArrays(ArrayNode target, ArrayNode patch) {
+        for (JsonNode patchItem : patch) {
+            if (patchItem.isObject()) {
+                String objectId = patchItem.path("objectId").textValue();
+
+                if (objectId == null) {
+                    // If no objectId, append as new item
+                    target.add(patchItem);
+                    continue;
+                }
+
+                // Find existing item with matching objectId
+                boolean found = false;
+                for (int i = 0; i < target.size(); i++) {
+                    JsonNode existingItem = target.get(i);
+                    if (existingItem.isObject() && objectId.equals(existingItem.path("objectId").textValue())) {
+                        // If found and different, replace with new item
+                        if (!existingItem.equals(patchItem)) {
+                            target.set(i, patchItem);
+                        }
+                        found = true;
+                        break;
+                    }
+                }
+
+                // If not found, append as new item
+                if (!found) {
+                    target.add(patchItem);
+                }
+            } else {
+                // For non-object items, append if not already present
+                boolean present = false;
+                for (JsonNode existingItem : target) {
+                    if (existingItem.equals(patchItem)) {
+                        present = true;
+                        break;
+                    }
+                }
+                if (!present) {
+                    target.add(patchItem);
+                }
+            }
+        }
+    }
+
+    // Helper method to check if a plan contains a child with the given ID
+    public static boolean containsChildWithId(ObjectNode planData, String childId) {
+        // Check planCostShares
+        if (planData.has("planCostShares")) {
+            JsonNode costShares = planData.get("planCostShares");
+            if (childId.equals(costShares.path("objectId").asText())) {
+                return true;
+            }
+        }
+
+        // Check linkedPlanServices
+        if (planData.has("linkedPlanServices")) {
+            for (JsonNode service : planData.get("linkedPlanServices")) {
+                // Check service itself
+                if (childId.equals(service.path("objectId").asText())) {
+                    return true;
+                }
+
+                // Check linkedService
+                if (childId.equals(service.path("linkedService").path("objectId").asText())) {
+                    return true;
+                }
+
+                // Check planserviceCostShares
+                if (childId.equals(service.path("planserviceCostShares").path("objectId").asText())) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // Helper method to remove a child with the given ID
+    public static void removeChildWithId(ObjectNode planData, String childId) {
+        // We can't remove planCostShares (required field), so we'd just update it
+        if (planData.has("planCostShares")) {
+            ObjectNode costShares = (ObjectNode) planData.get("planCostShares");
+            if (childId.equals(costShares.path("objectId").asText())) {
+                // We could reset values but keep the object
+                costShares.put("deductible", 0);
+                costShares.put("copay", 0);
+                return;
+            }
+        }
+
+        // Check linkedPlanServices
+        if (planData.has("linkedPlanServices")) {
+            ArrayNode updatedServices = planData.arrayNode();
+
+            for (JsonNode service : planData.get("linkedPlanServices")) {
+                // Skip if this is the service to remove
+                if (childId.equals(service.path("objectId").asText())) {
+                    continue;
+                }
+
+                // If linkedService or planserviceCostShares is the target, remove the whole service
+                if (childId.equals(service.path("linkedService").path("objectId").asText())
+                        || childId.equals(service.path("planserviceCostShares").path("objectId").asText())) {
+                    continue;
+                }
+
+                updatedServices.add(service);
+            }
+
+            // Replace the services array
+            planData.set("linkedPlanServices", updatedServices);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Thrown when a plan does not match plan-schema.json; carries every violation in the same
+// "#/pointer: message" form and order as everit's ValidationException.getAllMessages()
+public class PlanValidationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<String> allMessages;
+
+    public PlanValidationException(List<String> allMessages) {
+        super(allMessages.size() == 1 ? allMessages.get(0) : allMessages.size() + " schema violations found");
+        this.allMessages = new ArrayList<>(allMessages);
+    }
+
+    public List<String> getAllMessages() {
+        return Collections.unmodifiableList(allMessages);
+    }
+}
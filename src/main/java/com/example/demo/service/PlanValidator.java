@@ -0,0 +1,96 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.ValidationException;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Validates parsed plans against plan-schema.json. The schema is loaded by everit once at
+// startup and compiled into checks that run directly on the Jackson tree. Should the schema
+// ever use keywords the compiled form does not support, plans are copied into an org.json
+// tree and validated by everit instead.
+@Service
+public class PlanValidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanValidator.class);
+
+    private final Schema planSchema;
+    private final CompiledSchema compiledSchema;
+
+    public PlanValidator() {
+        try (InputStream schemaStream = getClass().getResourceAsStream("/plan-schema.json")) {
+            if (schemaStream == null) {
+                throw new RuntimeException("Schema file not found");
+            }
+            JSONObject rawSchema = new JSONObject(new JSONTokener(schemaStream));
+            planSchema = SchemaLoader.load(rawSchema);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load JSON Schema", e);
+        }
+        compiledSchema = compile(planSchema);
+    }
+
+    private static CompiledSchema compile(Schema schema) {
+        try {
+            return CompiledSchema.compile(schema);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Validating plans with everit: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // Throws PlanValidationException listing every violation when the plan does not match the schema
+    public void validate(JsonNode plan) {
+        if (compiledSchema != null) {
+            List<String> messages = compiledSchema.validate(plan);
+            if (messages != null) {
+                throw new PlanValidationException(messages);
+            }
+            return;
+        }
+        try {
+            planSchema.validate(toJson(plan));
+        } catch (ValidationException e) {
+            throw new PlanValidationException(e.getAllMessages());
+        }
+    }
+
+    // Builds the value org.json would have parsed from the same JSON text
+    private static Object toJson(JsonNode node) {
+        if (node.isObject()) {
+            JSONObject object = new JSONObject();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                object.put(field.getKey(), toJson(field.getValue()));
+            }
+            return object;
+        } else if (node.isArray()) {
+            JSONArray array = new JSONArray();
+            for (JsonNode item : node) {
+                array.put(toJson(item));
+            }
+            return array;
+        } else if (node.isFloatingPointNumber()) {
+            return node.decimalValue();
+        } else if (node.isNumber()) {
+            return node.numberValue();
+        } else if (node.isBoolean()) {
+            return node.booleanValue();
+        } else if (node.isTextual()) {
+            return node.textValue();
+        }
+        return JSONObject.NULL;
+    }
+}
@@ -1,14 +1,24 @@
 package com.example.demo.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.json.JSONObject;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class RabbitMQConsumerService {
@@ -18,57 +28,214 @@ public class RabbitMQConsumerService {
     @Autowired
     private ElasticsearchService elasticsearchService;
 
-    @RabbitListener(queues = "${rabbitmq.queue.plan}")
+    @Autowired
+    private PlanSearchCacheService planSearchCacheService;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlanStorageService planStorageService;
+
+    @Autowired
+    private PlanIndexLayout indexLayout;
+
+    @Value("${rabbitmq.queue.plan}")
+    private String planQueue;
+
+    @Value("${rabbitmq.exchange.plan}")
+    private String planExchange;
+
+    @RabbitListener(queues = "${rabbitmq.queue.plan}",
+            autoStartup = "#{!${rabbitmq.listener.batch.enabled:false}}")
     public void receiveMessage(Message message) {
         try {
             logger.info("Received message: {}", message);
-            
-            // Convert the message body to a String and log it for debugging
-            String messageBody = new String(message.getBody(), StandardCharsets.UTF_8);
-            logger.info("Message body: {}", messageBody);
-            
-            // Remove any surrounding quotes if present
-            if (messageBody.startsWith("\"") && messageBody.endsWith("\"")) {
-                messageBody = messageBody.substring(1, messageBody.length() - 1);
-                // Also need to unescape any escaped quotes
-                messageBody = messageBody.replace("\\\"", "\"");
-                messageBody = messageBody.replace("\\\\", "\\");
-            }
-            
-            // Parse the message as a JSONObject
-            JSONObject jsonObject = new JSONObject(messageBody);
-            
+
+            JsonNode jsonObject = parseMessage(message);
+
             // Check if it's a delete operation
-            if (jsonObject.has("operation") && "delete".equals(jsonObject.getString("operation"))) {
-                String objectId = jsonObject.getString("objectId");
+            if (isDelete(jsonObject)) {
+                String objectId = jsonObject.required("objectId").asText();
                 elasticsearchService.deletePlan(objectId);
+                planSearchCacheService.changed(List.of(), true);
                 logger.info("Plan deleted from Elasticsearch: {}", objectId);
+            } else if (isChanges(jsonObject) && PlanIndexDocuments.layout(jsonObject) != indexLayout) {
+                String objectId = jsonObject.required("objectId").asText();
+                reindexStored(objectId);
+                Set<String> orgs = new LinkedHashSet<>();
+                planSearchCacheService.changed(orgs, !addOrgs(jsonObject, orgs));
+                logger.info("Reindexed plan {} as stored, its changes were built for another index layout", objectId);
+            } else if (isChanges(jsonObject)) {
+                // Only the documents the write changed
+                List<JsonNode> changes = new ArrayList<>();
+                jsonObject.required(PlanIndexDocuments.CHANGES_OPERATION).forEach(changes::add);
+                elasticsearchService.applyChanges(changes);
+                Set<String> orgs = new LinkedHashSet<>();
+                planSearchCacheService.changed(orgs, !addOrgs(jsonObject, orgs));
+                logger.info("Applied {} document change(s) for plan {}", changes.size(),
+                        jsonObject.path("objectId").asText("unknown"));
             } else {
                 // Regular plan indexing
                 elasticsearchService.indexPlan(jsonObject);
-                logger.info("Plan indexed in Elasticsearch: {}", 
-                        jsonObject.has("objectId") ? jsonObject.getString("objectId") : "unknown");
+                Set<String> orgs = new LinkedHashSet<>();
+                planSearchCacheService.changed(orgs, !addOrgs(jsonObject, orgs));
+                logger.info("Plan indexed in Elasticsearch: {}",
+                        jsonObject.path("objectId").asText("unknown"));
             }
-            
+
         } catch (Exception e) {
             logger.error("Error processing message: {}", e.getMessage(), e);
             throw e; // This will trigger the retry mechanism
         }
     }
 
+    // Batch mode: the container hands over up to batch-size messages (or whatever arrived
+    // before the receive timeout) and acks them together once this method returns
+    @RabbitListener(queues = "${rabbitmq.queue.plan}",
+            containerFactory = "batchListenerContainerFactory",
+            autoStartup = "${rabbitmq.listener.batch.enabled:false}")
+    public void receiveMessages(List<Message> messages) {
+        try {
+            logger.info("Received batch of {} message(s)", messages.size());
+
+            // Keep only the last change per document, in arrival order. Whole-plan messages are
+            // turned into an upsert of every document so they coalesce the same way.
+            Map<String, JsonNode> latest = new LinkedHashMap<>();
+            int coalesced = 0;
+            // Search cache versions are bumped once for the whole batch, after it is applied
+            Set<String> orgs = new LinkedHashSet<>();
+            boolean unknownOrg = false;
+            for (Message message : messages) {
+                JsonNode jsonObject;
+                try {
+                    jsonObject = parseMessage(message);
+                } catch (Exception e) {
+                    // A malformed message must not poison the rest of the batch
+                    logger.error("Dead-lettering unparseable message: {}", e.getMessage());
+                    rabbitTemplate.send(planExchange + ".dlx", planQueue + ".dlq", message);
+                    continue;
+                }
+                String objectId = jsonObject.required("objectId").asText();
+                if (isDelete(jsonObject)) {
+                    // Deletes by plan id find the documents in the index, so what came before goes first
+                    coalesced += latest.size();
+                    elasticsearchService.applyChanges(latest.values());
+                    latest.clear();
+                    elasticsearchService.deletePlan(objectId);
+                    unknownOrg = true;
+                    continue;
+                }
+                if (!addOrgs(jsonObject, orgs)) {
+                    unknownOrg = true;
+                }
+                if (isChanges(jsonObject) && PlanIndexDocuments.layout(jsonObject) != indexLayout) {
+                    // Replaces every document of the plan, so what came before goes first
+                    coalesced += latest.size();
+                    elasticsearchService.applyChanges(latest.values());
+                    latest.clear();
+                    reindexStored(objectId);
+                    continue;
+                }
+
+                JsonNode changes = isChanges(jsonObject)
+                        ? jsonObject
+                        : PlanIndexDocuments.changes(indexLayout, objectId, null, jsonObject);
+                for (JsonNode change : changes.required(PlanIndexDocuments.CHANGES_OPERATION)) {
+                    // Routing is part of a document's identity, the same id may exist under another plan
+                    String key = change.required("routing").asText() + "/" + change.required("id").asText();
+                    latest.remove(key);
+                    latest.put(key, change);
+                }
+            }
+            coalesced += latest.size();
+            elasticsearchService.applyChanges(latest.values());
+            if (!orgs.isEmpty() || unknownOrg) {
+                planSearchCacheService.changed(orgs, unknownOrg);
+            }
+
+            logger.info("Batch flushed: {} message(s) coalesced into {} document change(s)",
+                    messages.size(), coalesced);
+        } catch (Exception e) {
+            logger.error("Error processing message batch: {}", e.getMessage(), e);
+            throw e; // This will trigger the retry mechanism for the whole batch
+        }
+    }
+
+    // Changes a replica still on the other index layout built cannot be applied to this one; the
+    // plan as stored now replaces whatever documents the plan has
+    private void reindexStored(String planId) {
+        StoredPlan plan = planStorageService.getPlans(List.of(planId)).get(planId);
+        elasticsearchService.deletePlan(planId);
+        if (plan != null) {
+            elasticsearchService.indexPlan(plan.getData());
+        }
+    }
+
+    // Helper method to turn a raw queue message into the plan or delete command it carries
+    private JsonNode parseMessage(Message message) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Message body: {}", new String(message.getBody(), StandardCharsets.UTF_8));
+        }
+
+        try {
+            // Parse straight from the body bytes
+            JsonNode jsonObject = objectMapper.readTree(message.getBody());
+
+            // A message serialized twice arrives as a JSON string that holds the actual object
+            if (jsonObject.isTextual()) {
+                jsonObject = objectMapper.readTree(jsonObject.textValue());
+            }
+            if (!jsonObject.isObject()) {
+                throw new IllegalArgumentException("Message is not a JSON object");
+            }
+            return jsonObject;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse message: " + e.getMessage(), e);
+        }
+    }
+
+    // Adds the orgs whose search results a change or whole plan affects, returning false when
+    // the message does not name them (changes queued before orgs were added to them)
+    private boolean addOrgs(JsonNode jsonObject, Set<String> orgs) {
+        JsonNode named = isChanges(jsonObject)
+                ? jsonObject.get(PlanIndexDocuments.ORGS_FIELD)
+                : jsonObject.get("_org");
+        if (named == null || named.isNull()) {
+            return false;
+        }
+        if (named.isArray()) {
+            named.forEach(org -> orgs.add(org.asText()));
+        } else {
+            orgs.add(named.asText());
+        }
+        return true;
+    }
+
+    private boolean isDelete(JsonNode jsonObject) {
+        return "delete".equals(jsonObject.path("operation").asText());
+    }
+
+    private boolean isChanges(JsonNode jsonObject) {
+        return PlanIndexDocuments.CHANGES_OPERATION.equals(jsonObject.path("operation").asText());
+    }
+
     @RabbitListener(queues = "${rabbitmq.queue.plan}.dlq")
     public void receiveDeadLetterMessage(Message message) {
         try {
             logger.error("Received dead letter message: {}", message);
-            
+
             // Log the message content for debugging
             String messageBody = new String(message.getBody(), StandardCharsets.UTF_8);
             logger.error("Dead letter message content: {}", messageBody);
-            
+
             // You could implement recovery logic here if needed
-            
+
         } catch (Exception e) {
             logger.error("Error processing dead letter message: {}", e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+}
@@ -8,9 +8,10 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.json.JSONObject;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 
 @Service
 public class RabbitMQProducerService {
@@ -26,29 +27,47 @@ public class RabbitMQProducerService {
     @Value("${rabbitmq.routing.plan}")
     private String routingKey;
 
-    public void sendMessage(JSONObject message) {
+    // Publishes an already serialized JSON message, so callers can send the same string they stored
+    public void sendMessage(String message) {
         try {
             logger.info("Sending message to RabbitMQ: {}", message);
-            
-            // Convert JSONObject to byte array
-            String messageString = message.toString();
-            byte[] messageBytes = messageString.getBytes(StandardCharsets.UTF_8);
-            
-            // Create message properties
-            MessageProperties properties = new MessageProperties();
-            properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
-            properties.setContentEncoding(StandardCharsets.UTF_8.name());
-            
-            // Create message
-            Message rabbitMessage = new Message(messageBytes, properties);
-            
+
             // Send the message directly without using conversion
-            rabbitTemplate.send(exchange, routingKey, rabbitMessage);
-            
+            rabbitTemplate.send(exchange, routingKey, toMessage(message));
+
             logger.info("Message sent successfully");
         } catch (Exception e) {
             logger.error("Failed to send message to RabbitMQ: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to send message to RabbitMQ: " + e.getMessage(), e);
         }
     }
+
+    // Publishes the messages on one channel and returns only once the broker has confirmed all
+    // of them, so the caller may forget them afterwards. Needs spring.rabbitmq.publisher-confirm-type=simple.
+    public void sendMessagesConfirmed(List<String> messages, Duration confirmTimeout) {
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (String message : messages) {
+                    operations.send(exchange, routingKey, toMessage(message));
+                }
+                operations.waitForConfirmsOrDie(confirmTimeout.toMillis());
+                return null;
+            });
+            logger.debug("Broker confirmed {} message(s)", messages.size());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to send messages to RabbitMQ: " + e.getMessage(), e);
+        }
+    }
+
+    private static Message toMessage(String message) {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+
+        // Create message properties
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding(StandardCharsets.UTF_8.name());
+
+        // Create message
+        return new Message(messageBytes, properties);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+// Non-blocking access to the stored plans for the reactive API. Writes run the very same
+// script arguments as PlanStorageService, so both APIs share the compare-and-set, the child
+// index, node references and the outbox. Plans in the normalized layout or in the legacy
+// string form need several dependent reads; those are delegated to PlanStorageService on the
+// bounded elastic scheduler rather than reimplemented.
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactivePlanStorageService {
+
+    private static final List<Object> BODY_FIELDS = List.of(
+            PlanStorageService.DATA_FIELD, PlanStorageService.ETAG_FIELD, PlanStorageService.LAYOUT_FIELD);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final PlanStorageService planStorageService;
+    private final PlanCacheService planCacheService;
+
+    @Autowired
+    public ReactivePlanStorageService(ReactiveStringRedisTemplate redisTemplate,
+            PlanStorageService planStorageService, PlanCacheService planCacheService) {
+        this.redisTemplate = redisTemplate;
+        this.planStorageService = planStorageService;
+        this.planCacheService = planCacheService;
+    }
+
+    public Mono<StoredPlan> getPlan(String planId) {
+        return redisTemplate.opsForHash().multiGet(planId, PlanStorageService.PLAN_FIELDS)
+                .flatMap(fields -> PlanStorageService.NORMALIZED_LAYOUT.equals(fields.get(3))
+                        ? blocking(() -> planStorageService.getPlan(planId))
+                        : Mono.justOrEmpty(planStorageService.toStoredPlan(fields)))
+                .onErrorResume(ReactivePlanStorageService::isWrongType,
+                        e -> blocking(() -> planStorageService.getPlan(planId)));
+    }
+
+    // The stored data and ETag, ready to be written to a response
+    public Mono<PlanBody> getPlanBody(String planId) {
+        return redisTemplate.opsForHash().multiGet(planId, BODY_FIELDS)
+                .flatMap(fields -> {
+                    if (fields.get(0) == null || fields.get(1) == null) {
+                        return Mono.empty();
+                    }
+                    if (fields.get(2) != null) {
+                        return blocking(() -> planStorageService.getPlanBody(planId));
+                    }
+                    return Mono.just(new PlanBody(fields.get(0).toString().getBytes(StandardCharsets.UTF_8),
+                            fields.get(1).toString()));
+                })
+                .onErrorResume(ReactivePlanStorageService::isWrongType,
+                        e -> blocking(() -> planStorageService.getPlanBody(planId)));
+    }
+
+    public Mono<String> getEtag(String planId) {
+        return redisTemplate.opsForHash().get(planId, PlanStorageService.ETAG_FIELD)
+                .map(Object::toString)
+                .onErrorResume(ReactivePlanStorageService::isWrongType,
+                        e -> blocking(() -> planStorageService.getEtag(planId)));
+    }
+
+    // Emits false when the plan changed since previous was read and nothing was written
+    public Mono<Boolean> savePlan(String planId, ObjectNode planData, String data, ObjectNode metadata, String etag,
+            StoredPlan previous) {
+        return Mono.fromCallable(() -> planStorageService.saveCommands(planId, planData, data, metadata, etag, previous))
+                .flatMap(args -> apply(planId, args));
+    }
+
+    public Mono<Boolean> deletePlan(String planId, StoredPlan previous) {
+        return Mono.fromCallable(() -> planStorageService.deleteCommands(planId, previous))
+                .flatMap(args -> apply(planId, args));
+    }
+
+    public Mono<String> findOwningPlan(String objectId) {
+        return redisTemplate.opsForHash().get(PlanStorageService.CHILD_INDEX_KEY, objectId)
+                .map(Object::toString);
+    }
+
+    public Mono<Void> removeChildEntry(String objectId, String planId) {
+        return execute(PlanStorageService.removeChildEntryCommands(objectId, planId)).then();
+    }
+
+    private Mono<Boolean> apply(String planId, PlanStorageService.WriteCommands args) {
+        return execute(args).doOnNext(applied -> {
+            if (applied) {
+                planCacheService.invalidate(planId);
+            }
+        });
+    }
+
+    private Mono<Boolean> execute(PlanStorageService.WriteCommands args) {
+        return redisTemplate.execute(planStorageService.getWriteScript(), args.keys(), args.args())
+                .next()
+                .map(result -> result == 1L)
+                .defaultIfEmpty(false);
+    }
+
+    private static <T> Mono<T> blocking(Callable<T> read) {
+        return Mono.fromCallable(read).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static boolean isWrongType(Throwable e) {
+        return e instanceof InvalidDataAccessApiUsageException
+                && e.getMessage() != null && e.getMessage().contains("WRONGTYPE");
+    }
+}
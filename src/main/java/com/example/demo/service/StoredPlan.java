@@ -0,0 +1,40 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Set;
+
+// A plan as read from Redis: the plan data, its metadata and ETag, independent of the storage layout
+public class StoredPlan {
+    private final ObjectNode data;
+    private final ObjectNode metadata;
+    private final String etag;
+    // Digests of the shared nodes the stored copy references; empty for whole-document storage
+    private final Set<String> nodeDigests;
+
+    StoredPlan(ObjectNode data, ObjectNode metadata, String etag, Set<String> nodeDigests) {
+        this.data = data;
+        this.metadata = metadata;
+        this.etag = etag;
+        this.nodeDigests = nodeDigests;
+    }
+
+    // The stored tree itself; callers that modify the plan work on a deepCopy(), since the
+    // stored version is still needed to clean up child index entries and nodes on save
+    public ObjectNode getData() {
+        return data;
+    }
+
+    // Returns a mutable copy so callers can stamp updated_by/updated_at before saving
+    public ObjectNode getMetadata() {
+        return metadata.deepCopy();
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    Set<String> getNodeDigests() {
+        return nodeDigests;
+    }
+}
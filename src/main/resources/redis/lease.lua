@@ -0,0 +1,13 @@
+-- Takes or renews a lease, so only one replica at a time drains the outbox or runs a reindex.
+-- KEYS[1]  lease key holding the id of the current owner
+-- ARGV[1]  id of the caller
+-- ARGV[2]  lease time in milliseconds
+-- Returns 1 while the caller holds the lease, 0 when another replica does
+if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+    return 1
+end
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,62 @@
+-- Applies every Redis change belonging to one plan write in a single atomic step.
+-- KEYS holds every key the write touches. ARGV is a flat list of commands, each encoded as:
+--   <argc> <keyc> <command> <arg>...
+-- where <argc> counts the command and its arguments and the first <keyc> arguments are
+-- positions in KEYS rather than the keys themselves.
+-- Besides plain Redis commands the following helpers are understood:
+--   ETAGIS <key> <etag>              abort the whole write and return 0 unless the plan under <key>
+--                                    still has ETag <etag>; an empty <etag> means no plan may exist.
+--                                    Must come before any command that writes.
+--   HDELIFEQ <key> <field> <value>   delete the hash field only while it still holds <value>
+--   DECRDEL <key> <node> <field>      decrement a reference count; at zero drop it and delete <node>
+--   IFEXISTS <guard> <key> <command> <arg>...
+--                                    run <command> <key> <arg>... (a helper too) only while <guard> exists
+local function run(command)
+    if command[1] == 'HDELIFEQ' then
+        if redis.call('HGET', command[2], command[3]) == command[4] then
+            redis.call('HDEL', command[2], command[3])
+        end
+    elseif command[1] == 'DECRDEL' then
+        if redis.call('HINCRBY', command[2], command[4], -1) <= 0 then
+            redis.call('HDEL', command[2], command[4])
+            redis.call('DEL', command[3])
+        end
+    elseif command[1] == 'IFEXISTS' then
+        if redis.call('EXISTS', command[2]) == 1 then
+            local inner = { command[4], command[3] }
+            for k = 5, #command do
+                inner[#inner + 1] = command[k]
+            end
+            run(inner)
+        end
+    else
+        redis.call(unpack(command))
+    end
+end
+
+local i = 1
+while i <= #ARGV do
+    local argc = tonumber(ARGV[i])
+    local keyc = tonumber(ARGV[i + 1])
+    local command = { unpack(ARGV, i + 2, i + argc + 1) }
+    for k = 2, keyc + 1 do
+        command[k] = KEYS[tonumber(command[k])]
+    end
+    if command[1] == 'ETAGIS' then
+        local current = false
+        local kind = redis.call('TYPE', command[2]).ok
+        if kind == 'hash' then
+            current = redis.call('HGET', command[2], 'etag')
+        elseif kind == 'string' then
+            -- Plan stored as one JSON value before the hash layout
+            current = cjson.decode(redis.call('GET', command[2])).etag
+        end
+        if (current or '') ~= command[3] then
+            return 0
+        end
+    else
+        run(command)
+    end
+    i = i + argc + 2
+end
+return 1
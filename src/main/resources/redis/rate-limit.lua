@@ -0,0 +1,37 @@
+-- Token bucket for one client, applied atomically.
+-- KEYS[1]  bucket hash holding the token count and the time it was last refilled
+-- ARGV[1]  capacity: the most tokens the bucket holds, also the refill per window
+-- ARGV[2]  window in milliseconds over which an empty bucket refills completely
+-- ARGV[3]  tokens wanted; fewer are granted when the bucket does not hold that many
+-- ARGV[4]  tokens an expired lease did not spend, put back before taking
+-- Returns { tokens granted, milliseconds until the next token when none were granted }
+local capacity = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+local wanted = tonumber(ARGV[3])
+local returned = tonumber(ARGV[4]) or 0
+
+-- The server clock is shared by every application node
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'refilled')
+local tokens = tonumber(bucket[1])
+local refilled = tonumber(bucket[2])
+if tokens == nil or refilled == nil then
+    tokens = capacity
+    refilled = now
+end
+-- Returned tokens were taken from this bucket, so they never lift it above capacity
+tokens = math.min(capacity, tokens + math.max(0, now - refilled) * capacity / window + returned)
+
+local granted = math.min(wanted, math.floor(tokens))
+tokens = tokens - granted
+redis.call('HSET', KEYS[1], 'tokens', tokens, 'refilled', now)
+-- A bucket left alone for a whole window is full again, which is the same as no bucket
+redis.call('PEXPIRE', KEYS[1], window)
+
+local wait = 0
+if granted == 0 then
+    wait = math.ceil((1 - tokens) * window / capacity)
+end
+return { granted, wait }
@@ -0,0 +1,148 @@
+package com.example.demo.benchmark;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Refresh;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.example.demo.config.ElasticsearchIndexConfig;
+import com.example.demo.model.PlanFilter;
+import com.example.demo.service.PlanFilterQueries;
+import com.example.demo.service.PlanIndexDocuments;
+import com.example.demo.service.PlanIndexLayout;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Query latency and indexing throughput of the join and nested index layouts against a running
+// Elasticsearch (-Delasticsearch.url, http://localhost:9200 by default). Each trial loads plans
+// into a scratch index of the layout's mapping, then times the searches /search and /_search run
+// for a service name and a cost share bound, and _bulk requests of whole plans.
+//
+//   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main PlanIndexLayoutBenchmark
+@State(Scope.Benchmark)
+@Fork(1)
+public class PlanIndexLayoutBenchmark {
+
+    private static final int ORGS = 10;
+    private static final int BULK_PLANS = 100;
+
+    @Param({"join", "nested"})
+    public String layout;
+
+    @Param({"10000"})
+    public int plans;
+
+    @Param({"10"})
+    public int services;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private PlanIndexLayout indexLayout;
+    private RestClient restClient;
+    private ElasticsearchClient client;
+    private String index;
+    private Query serviceQuery;
+    private Query costShareQuery;
+    private int nextPlan;
+
+    @Setup
+    public void setup() throws Exception {
+        indexLayout = PlanIndexLayout.of(layout);
+        restClient = RestClient.builder(HttpHost.create(System.getProperty("elasticsearch.url", "http://localhost:9200")))
+                .build();
+        client = new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper()));
+        index = "plans-benchmark-" + layout;
+        client.indices().delete(d -> d.index(index).ignoreUnavailable(true));
+        client.indices().create(c -> c.index(index).mappings(ElasticsearchIndexConfig.mapping(indexLayout)));
+        for (int first = 0; first < plans; first += BULK_PLANS) {
+            index(first, Math.min(BULK_PLANS, plans - first));
+        }
+        client.indices().refresh(r -> r.index(index));
+        nextPlan = plans;
+
+        serviceQuery = PlanFilterQueries.compile(indexLayout,
+                new PlanFilter("org3.com", null, null, "Service 3", null, null, null));
+        costShareQuery = PlanFilterQueries.compile(indexLayout, new PlanFilter(null, "inNetwork", null, null, null,
+                new PlanFilter.Range<>(null, null, 5, null), null));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.indices().delete(d -> d.index(index).ignoreUnavailable(true));
+        restClient.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long searchByServiceName() throws Exception {
+        return search(serviceQuery);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long searchByCostShare() throws Exception {
+        return search(costShareQuery);
+    }
+
+    // Each operation indexes BULK_PLANS new plans, so plans per second is the score times BULK_PLANS
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public BulkResponse indexPlans() throws Exception {
+        BulkResponse response = index(nextPlan, BULK_PLANS);
+        nextPlan += BULK_PLANS;
+        return response;
+    }
+
+    private long search(Query query) throws Exception {
+        return client.search(s -> s
+                .index(index)
+                .size(10)
+                .query(query)
+                .source(src -> src.filter(f -> f.includes("_org", "planType"))), ObjectNode.class).hits().hits().size();
+    }
+
+    private BulkResponse index(int first, int count) throws Exception {
+        List<BulkOperation> operations = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            JsonNode plan = objectMapper.readTree(PlanSamples.plan(services, i, ORGS).toString());
+            String planId = plan.required("objectId").asText();
+            PlanIndexDocuments.documents(indexLayout, plan).forEach((id, document) ->
+                    operations.add(BulkOperation.of(b -> b.index(o -> o
+                            .index(index)
+                            .id(id)
+                            .routing(planId)
+                            .document(document)))));
+        }
+        BulkResponse response = client.bulk(new BulkRequest.Builder().operations(operations).refresh(Refresh.False).build());
+        if (response.errors()) {
+            throw new IllegalStateException("Bulk indexing failed: " + response.items().stream()
+                    .filter(item -> item.error() != null)
+                    .map(item -> item.error().reason())
+                    .findFirst().orElse(null));
+        }
+        return response;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.model.DataResponse;
+import com.example.demo.service.PlanBody;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Per-request work of producing plan response bodies, from the Redis reply to the bytes the
+// servlet's message converter writes: parsing the stored JSON blob and re-serializing its data
+// versus wrapping the HMGET data field in a PlanBody and writing its bytes through.
+//
+// Run with the gc profiler to compare allocation per operation:
+//   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main PlanReadBenchmark -prof gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanReadBenchmark {
+
+    @Param({"10", "200"})
+    public int services;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StringHttpMessageConverter stringConverter = new StringHttpMessageConverter();
+    private final ByteArrayHttpMessageConverter byteArrayConverter = new ByteArrayHttpMessageConverter();
+    private byte[] storedBlob;
+    private List<byte[]> storedFields;
+    private JSONObject plan;
+
+    @Setup
+    public void setup() {
+        plan = PlanSamples.plan(services);
+        JSONObject blob = new JSONObject();
+        blob.put("data", plan);
+        blob.put("metadata", Map.of("created_by", "bench"));
+        blob.put("etag", "etag");
+        // The GET reply of the old single-value layout and the HMGET data and etag fields
+        // PlanStorageService.getPlanBody reads, as Lettuce hands them over
+        storedBlob = blob.toString().getBytes(StandardCharsets.UTF_8);
+        storedFields = List.of(plan.toString().getBytes(StandardCharsets.UTF_8),
+                "etag".getBytes(StandardCharsets.UTF_8));
+    }
+
+    // GET before: decode the stored value, parse it whole, then serialize the data portion again
+    // for the String converter
+    @Benchmark
+    public byte[] getParseAndReserialize() throws Exception {
+        JSONObject jsonObject = new JSONObject(new String(storedBlob, StandardCharsets.UTF_8));
+        String etag = jsonObject.getString("etag");
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+        message.getHeaders().setETag("\"" + etag + "\"");
+        stringConverter.write(jsonObject.getJSONObject("data").toString(), MediaType.APPLICATION_JSON, message);
+        return message.getBodyAsBytes();
+    }
+
+    // GET after: the data field bytes become the PlanBody, which the byte[] converter copies out
+    @Benchmark
+    public byte[] getStoredBytes() throws Exception {
+        PlanBody body = new PlanBody(storedFields.get(0), new String(storedFields.get(1), StandardCharsets.UTF_8));
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+        message.getHeaders().setETag("\"" + body.getEtag() + "\"");
+        byteArrayConverter.write(body.getData(), MediaType.APPLICATION_JSON, message);
+        return message.getBodyAsBytes();
+    }
+
+    // Write before: serialize the plan for Redis, then copy it into a Map for the Jackson response
+    @Benchmark
+    public byte[] writeResponseFromMap() throws Exception {
+        String stored = plan.toString();
+        return objectMapper.writeValueAsBytes(Map.of("data", plan.toMap(), "stored", stored.length()));
+    }
+
+    // Write after: serialize the plan once for Redis and embed that string in the response
+    @Benchmark
+    public byte[] writeResponseRaw() throws Exception {
+        String stored = plan.toString();
+        return objectMapper.writeValueAsBytes(new DataResponse(stored));
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.demo.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Builds plans for the benchmarks from src/test/resources/plan.json, the plan the unit tests use
+final class PlanSamples {
+
+    private static final String PLAN = load();
+
+    private PlanSamples() {
+    }
+
+    // The sample plan with its services repeated, each copy under ids and a name of its own
+    static JSONObject plan(int services) {
+        JSONObject plan = new JSONObject(PLAN);
+        JSONArray samples = plan.getJSONArray("linkedPlanServices");
+        JSONArray linkedPlanServices = new JSONArray();
+        for (int i = 0; i < services; i++) {
+            JSONObject service = new JSONObject(samples.getJSONObject(i % samples.length()).toString());
+            JSONObject linkedService = service.getJSONObject("linkedService");
+            linkedService.put("name", "Service " + i);
+            for (JSONObject object : List.of(service, linkedService, service.getJSONObject("planserviceCostShares"))) {
+                object.put("objectId", object.getString("objectId") + "-" + i);
+            }
+            linkedPlanServices.put(service);
+        }
+        plan.put("linkedPlanServices", linkedPlanServices);
+        return plan;
+    }
+
+    // The plan under ids of its own, of org<index % orgs>.com, with cost shares that vary with index
+    static JSONObject plan(int services, int index, int orgs) {
+        JSONObject plan = plan(services);
+        String org = "org" + (index % orgs) + ".com";
+        distinguish(plan, index, org);
+        plan.getJSONObject("planCostShares").put("copay", index % 100);
+        JSONArray linkedPlanServices = plan.getJSONArray("linkedPlanServices");
+        for (int i = 0; i < linkedPlanServices.length(); i++) {
+            linkedPlanServices.getJSONObject(i).getJSONObject("planserviceCostShares").put("copay", (index + i) % 200);
+        }
+        return plan;
+    }
+
+    private static void distinguish(JSONObject object, int index, String org) {
+        object.put("objectId", object.getString("objectId") + "-" + index);
+        object.put("_org", org);
+        for (String key : object.keySet()) {
+            Object value = object.get(key);
+            if (value instanceof JSONObject child) {
+                distinguish(child, index, org);
+            } else if (value instanceof JSONArray array) {
+                for (int i = 0; i < array.length(); i++) {
+                    distinguish(array.getJSONObject(i), index, org);
+                }
+            }
+        }
+    }
+
+    private static String load() {
+        try (InputStream in = PlanSamples.class.getResourceAsStream("/plan.json")) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
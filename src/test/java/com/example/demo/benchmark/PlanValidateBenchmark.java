@@ -0,0 +1,63 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.service.PlanValidator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+// Validating a valid plan: everit walking an org.json tree versus the compiled plan schema
+// walking the Jackson tree the controller already has.
+//
+// Run with the gc profiler to compare allocation per operation:
+//   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main PlanValidateBenchmark -prof gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanValidateBenchmark {
+
+    @Param({"10", "200"})
+    public int services;
+
+    private Schema everitSchema;
+    private PlanValidator planValidator;
+    private JSONObject orgJsonPlan;
+    private JsonNode jacksonPlan;
+
+    @Setup
+    public void setup() throws Exception {
+        try (InputStream schemaStream = getClass().getResourceAsStream("/plan-schema.json")) {
+            everitSchema = SchemaLoader.load(new JSONObject(new JSONTokener(schemaStream)));
+        }
+        planValidator = new PlanValidator();
+        String plan = PlanSamples.plan(services).toString();
+        orgJsonPlan = new JSONObject(plan);
+        jacksonPlan = new ObjectMapper().readTree(plan);
+    }
+
+    @Benchmark
+    public JSONObject everit() {
+        everitSchema.validate(orgJsonPlan);
+        return orgJsonPlan;
+    }
+
+    @Benchmark
+    public JsonNode compiled() {
+        planValidator.validate(jacksonPlan);
+        return jacksonPlan;
+    }
+}
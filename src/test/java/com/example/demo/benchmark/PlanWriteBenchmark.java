@@ -0,0 +1,105 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.model.DataResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Document handling on the write path, without schema validation and Redis/RabbitMQ I/O:
+// org.json with its toMap() and toString() copies versus one Jackson tree per request.
+// The PATCH body only replaces a top-level field, for which the old Map-based deepMerge
+// amounts to a HashMap copy plus a put.
+//
+// Run with the gc profiler to compare allocation per operation:
+//   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main PlanWriteBenchmark -prof gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanWriteBenchmark {
+
+    @Param({"10", "200"})
+    public int services;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] requestBody;
+    private String storedData;
+    private byte[] patchBody;
+
+    @Setup
+    public void setup() {
+        String plan = PlanSamples.plan(services).toString();
+        requestBody = plan.getBytes(StandardCharsets.UTF_8);
+        storedData = plan;
+        patchBody = "{\"planType\":\"outOfNetwork\"}".getBytes(StandardCharsets.UTF_8);
+    }
+
+    // PUT before: String body, JSONObject, one toString() for Redis and another for the message
+    @Benchmark
+    public byte[] putOrgJson() throws Exception {
+        String planJson = new String(requestBody, StandardCharsets.UTF_8);
+        JSONObject plan = new JSONObject(planJson);
+        String etag = DigestUtils.md5DigestAsHex(planJson.getBytes());
+        String data = plan.toString();
+        byte[] message = plan.toString().getBytes(StandardCharsets.UTF_8);
+        return response(data, etag, message);
+    }
+
+    // PUT after: parsed from the body bytes, serialized once for Redis, response and message
+    @Benchmark
+    public byte[] putJackson() throws Exception {
+        ObjectNode plan = (ObjectNode) objectMapper.readTree(requestBody);
+        String etag = DigestUtils.md5DigestAsHex(requestBody);
+        String data = objectMapper.writeValueAsString(plan);
+        byte[] message = data.getBytes(StandardCharsets.UTF_8);
+        return response(data, etag, message);
+    }
+
+    // PATCH before: stored plan and patch copied to Maps, merged, and rebuilt as a JSONObject
+    // for validation, for the ETag and for storage
+    @Benchmark
+    public byte[] patchOrgJson() throws Exception {
+        JSONObject existing = new JSONObject(storedData);
+        JSONObject patch = new JSONObject(new String(patchBody, StandardCharsets.UTF_8));
+        Map<String, Object> merged = new HashMap<>(existing.toMap());
+        merged.putAll(patch.toMap());
+        JSONObject validated = new JSONObject(merged);
+        String etag = DigestUtils.md5DigestAsHex(new JSONObject(merged).toString().getBytes());
+        JSONObject mergedPlan = new JSONObject(merged);
+        String data = mergedPlan.toString();
+        byte[] message = mergedPlan.toString().getBytes(StandardCharsets.UTF_8);
+        return validated.length() > 0 ? response(data, etag, message) : null;
+    }
+
+    // PATCH after: the patch is merged into a copy of the stored tree, serialized once
+    @Benchmark
+    public byte[] patchJackson() throws Exception {
+        ObjectNode existing = (ObjectNode) objectMapper.readTree(storedData);
+        ObjectNode patch = (ObjectNode) objectMapper.readTree(patchBody);
+        ObjectNode mergedPlan = existing.deepCopy();
+        mergedPlan.setAll(patch);
+        String data = objectMapper.writeValueAsString(mergedPlan);
+        String etag = DigestUtils.md5DigestAsHex(data.getBytes(StandardCharsets.UTF_8));
+        byte[] message = data.getBytes(StandardCharsets.UTF_8);
+        return response(data, etag, message);
+    }
+
+    private byte[] response(String data, String etag, byte[] message) throws Exception {
+        byte[] body = objectMapper.writeValueAsBytes(new DataResponse(data));
+        return etag.length() + message.length > 0 ? body : null;
+    }
+}
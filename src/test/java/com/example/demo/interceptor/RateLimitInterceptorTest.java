@@ -0,0 +1,131 @@
+package com.example.demo.interceptor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Lease accounting against an in-memory bucket that does not refill, so every token taken from
+// it is either spent by a request or returned
+class RateLimitInterceptorTest {
+
+    private static final int LEASE_SIZE = 10;
+    private static final long TTL_MS = 1000;
+
+    private static final class Bucket implements RateLimitInterceptor.Bucket {
+        private final long capacity;
+        private long tokens;
+        private final List<Long> returns = new ArrayList<>();
+
+        Bucket(long capacity) {
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        @Override
+        public long[] take(long returned, int wanted) {
+            returns.add(returned);
+            tokens = Math.min(capacity, tokens + returned);
+            long granted = Math.min(wanted, tokens);
+            tokens -= granted;
+            return new long[] { granted, granted == 0 ? 500 : 0 };
+        }
+    }
+
+    @Test
+    void admitsALeaseWithOneTake() {
+        Bucket bucket = new Bucket(100);
+        RateLimitInterceptor.Lease lease = new RateLimitInterceptor.Lease(bucket, LEASE_SIZE, TTL_MS);
+        for (int i = 0; i < LEASE_SIZE; i++) {
+            assertEquals(0, lease.acquire(0));
+        }
+        assertEquals(1, bucket.returns.size());
+        assertEquals(90, bucket.tokens);
+
+        assertEquals(0, lease.acquire(1));
+        assertEquals(2, bucket.returns.size());
+        assertEquals(80, bucket.tokens);
+    }
+
+    @Test
+    void expiredLeaseReturnsUnspentTokensWithTheNextTake() {
+        Bucket bucket = new Bucket(100);
+        RateLimitInterceptor.Lease lease = new RateLimitInterceptor.Lease(bucket, LEASE_SIZE, TTL_MS);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, lease.acquire(0));
+        }
+
+        assertEquals(0, lease.acquire(TTL_MS));
+        assertEquals(List.of(0L, 7L), bucket.returns);
+        // Four requests spent, nine tokens of the new lease still held
+        assertEquals(100 - 4 - 9, bucket.tokens);
+    }
+
+    @Test
+    void releaseHandsBackUnspentTokensOnce() {
+        Bucket bucket = new Bucket(100);
+        RateLimitInterceptor.Lease lease = new RateLimitInterceptor.Lease(bucket, LEASE_SIZE, TTL_MS);
+        assertEquals(0, lease.acquire(0));
+        assertEquals(9, lease.release());
+        assertEquals(0, lease.release());
+
+        // Nothing is left to return once released
+        assertEquals(0, lease.acquire(TTL_MS));
+        assertEquals(List.of(0L, 0L), bucket.returns);
+    }
+
+    @Test
+    void returnedTokensAreAdmittedAgain() {
+        Bucket bucket = new Bucket(LEASE_SIZE);
+        RateLimitInterceptor.Lease first = new RateLimitInterceptor.Lease(bucket, LEASE_SIZE, TTL_MS);
+        RateLimitInterceptor.Lease second = new RateLimitInterceptor.Lease(bucket, LEASE_SIZE, TTL_MS);
+        assertEquals(0, first.acquire(0));
+        assertEquals(500, second.acquire(0));
+
+        // The second lease may take what the first did not spend once it lapses
+        bucket.take(first.release(), 0);
+        assertEquals(0, second.acquire(500));
+        // All that is missing from the bucket is the one request each lease admitted
+        assertEquals(LEASE_SIZE - 2, second.release());
+    }
+
+    @Test
+    void tryAcquireNeverTakesFromTheBucket() {
+        Bucket bucket = new Bucket(100);
+        RateLimitInterceptor.Lease lease = new RateLimitInterceptor.Lease(bucket, LEASE_SIZE, TTL_MS);
+        assertEquals(-1, lease.tryAcquire(0));
+        assertEquals(0, bucket.returns.size());
+
+        assertEquals(0, lease.acquire(0));
+        for (int i = 1; i < LEASE_SIZE; i++) {
+            assertEquals(0, lease.tryAcquire(0));
+        }
+        // The lease is spent, so the next request has to go to the bucket
+        assertEquals(-1, lease.tryAcquire(0));
+        assertEquals(1, bucket.returns.size());
+    }
+
+    @Test
+    void tryAcquireTurnsAwayWhileDenied() {
+        Bucket bucket = new Bucket(0);
+        RateLimitInterceptor.Lease lease = new RateLimitInterceptor.Lease(bucket, LEASE_SIZE, TTL_MS);
+        assertEquals(500, lease.acquire(0));
+        assertEquals(400, lease.tryAcquire(100));
+        assertEquals(-1, lease.tryAcquire(500));
+        assertEquals(1, bucket.returns.size());
+    }
+
+    @Test
+    void deniedLeaseWaitsWithoutAskingTheBucket() {
+        Bucket bucket = new Bucket(0);
+        RateLimitInterceptor.Lease lease = new RateLimitInterceptor.Lease(bucket, LEASE_SIZE, TTL_MS);
+        assertEquals(500, lease.acquire(0));
+        assertEquals(400, lease.acquire(100));
+        assertEquals(1, bucket.returns.size());
+
+        assertEquals(500, lease.acquire(500));
+        assertEquals(2, bucket.returns.size());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.demo.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Reads the key set from a file: JWKS and counts how often the provider opens it
+class JwksKeyProviderTest {
+
+    @TempDir
+    Path dir;
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    static KeyPair keyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    static String jwks(String keyId, KeyPair keyPair) {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return """
+                {"keys": [{"kty": "RSA", "alg": "RS256", "use": "sig", "kid": "%s", "n": "%s", "e": "%s"}]}
+                """.formatted(keyId, encoder.encodeToString(key.getModulus().toByteArray()),
+                encoder.encodeToString(key.getPublicExponent().toByteArray()));
+    }
+
+    JwksKeyProvider provider(String jwks) throws Exception {
+        Path file = Files.writeString(dir.resolve("jwks.json"), jwks);
+        DefaultResourceLoader resourceLoader = new DefaultResourceLoader() {
+            @Override
+            public Resource getResource(String location) {
+                reads.incrementAndGet();
+                return super.getResource(location);
+            }
+        };
+        return new JwksKeyProvider(resourceLoader, new ObjectMapper(), file.toUri().toString(), Duration.ofHours(1));
+    }
+
+    @Test
+    void loadsKeysOnStart() throws Exception {
+        KeyPair keyPair = keyPair();
+        JwksKeyProvider provider = provider(jwks("k1", keyPair));
+        provider.start();
+        try {
+            assertEquals(keyPair.getPublic(), provider.getPublicKeyById("k1"));
+            assertEquals(1, reads.get());
+        } finally {
+            provider.stop();
+        }
+    }
+
+    @Test
+    void unknownKeyIdRefreshesOnceForConcurrentRequests() throws Exception {
+        // Not started, so the first unknown key id finds the refresh due
+        JwksKeyProvider provider = provider(jwks("k1", keyPair()));
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<RSAPublicKey>> lookups = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                lookups.add(executor.submit(() -> {
+                    start.await();
+                    return provider.getPublicKeyById("unknown");
+                }));
+            }
+            start.countDown();
+            for (Future<RSAPublicKey> lookup : lookups) {
+                assertNull(lookup.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, reads.get());
+
+        // Still within the minimum interval, so neither another unknown id nor the same one reads again
+        assertNull(provider.getPublicKeyById("unknown"));
+        assertNull(provider.getPublicKeyById("other"));
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    void keepsKeysWhenTheDocumentCannotBeRead() throws Exception {
+        KeyPair keyPair = keyPair();
+        JwksKeyProvider provider = provider(jwks("k1", keyPair));
+        provider.refresh();
+        Files.writeString(dir.resolve("jwks.json"), "not json");
+        provider.refresh();
+        assertEquals(keyPair.getPublic(), provider.getPublicKeyById("k1"));
+        assertEquals(2, reads.get());
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Verifies tokens signed in the test against keys read from a file: JWKS
+class JwtTokenVerifierTest {
+
+    private static final String ISSUER = "https://accounts.example.com";
+    private static final String CLIENT_ID = "client";
+
+    @TempDir
+    Path dir;
+
+    private KeyPair keyPair;
+    private Path jwks;
+    private JwksKeyProvider keyProvider;
+    private JwtTokenVerifier verifier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        keyPair = JwksKeyProviderTest.keyPair();
+        jwks = Files.writeString(dir.resolve("jwks.json"), JwksKeyProviderTest.jwks("k1", keyPair));
+        keyProvider = new JwksKeyProvider(new DefaultResourceLoader(), new ObjectMapper(), jwks.toUri().toString(),
+                Duration.ofHours(1));
+        keyProvider.refresh();
+
+        verifier = new JwtTokenVerifier();
+        ReflectionTestUtils.setField(verifier, "clientId", CLIENT_ID);
+        ReflectionTestUtils.setField(verifier, "issuer", ISSUER);
+        ReflectionTestUtils.setField(verifier, "tokenCacheMaxSize", 100L);
+        ReflectionTestUtils.setField(verifier, "jwksKeyProvider", keyProvider);
+        verifier.init();
+    }
+
+    private String token(String subject, KeyPair signer, Instant expiresAt) {
+        return JWT.create()
+                .withKeyId("k1")
+                .withIssuer(ISSUER)
+                .withAudience(CLIENT_ID)
+                .withSubject(subject)
+                .withExpiresAt(expiresAt)
+                .sign(Algorithm.RSA256((RSAPublicKey) signer.getPublic(), (RSAPrivateKey) signer.getPrivate()));
+    }
+
+    @Test
+    void verifiesAndCachesAValidToken() {
+        String token = token("alice", keyPair, Instant.now().plusSeconds(3600));
+        assertNull(verifier.cachedSubject(token));
+        assertEquals("alice", verifier.authenticate(token));
+        assertEquals("alice", verifier.cachedSubject(token));
+    }
+
+    @Test
+    void rejectsAnExpiredToken() {
+        String token = token("alice", keyPair, Instant.now().minusSeconds(60));
+        assertThrows(TokenExpiredException.class, () -> verifier.authenticate(token));
+        assertNull(verifier.cachedSubject(token));
+    }
+
+    @Test
+    void rejectsABadSignature() throws Exception {
+        String token = token("alice", JwksKeyProviderTest.keyPair(), Instant.now().plusSeconds(3600));
+        assertThrows(SignatureVerificationException.class, () -> verifier.authenticate(token));
+        assertNull(verifier.cachedSubject(token));
+    }
+
+    @Test
+    void cacheHitSkipsVerification() throws Exception {
+        String token = token("alice", keyPair, Instant.now().plusSeconds(3600));
+        assertEquals("alice", verifier.authenticate(token));
+
+        // Once the signing key is gone, only a token that is not verified again still passes
+        Files.writeString(jwks, "{\"keys\": []}");
+        keyProvider.refresh();
+        assertEquals("alice", verifier.authenticate(token));
+        String other = token("bob", keyPair, Instant.now().plusSeconds(3600));
+        assertThrows(SignatureVerificationException.class, () -> verifier.authenticate(other));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Line splitting and the results of lines that fail before anything is stored, so no Redis is
+// needed: the storage service is never reached
+class PlanBulkIngestServiceTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static PlanBulkIngestService service(long maxLineBytes) {
+        return new PlanBulkIngestService(null, new PlanValidator(), objectMapper, 500,
+                DataSize.ofBytes(maxLineBytes), 5);
+    }
+
+    private static List<PlanBulkIngestService.BulkLine> split(PlanBulkIngestService.LineSplitter splitter,
+            String... chunks) {
+        List<PlanBulkIngestService.BulkLine> lines = new ArrayList<>();
+        for (String chunk : chunks) {
+            byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+            lines.addAll(splitter.split(bytes, 0, bytes.length));
+        }
+        lines.addAll(splitter.finish());
+        return lines;
+    }
+
+    @Test
+    void splitsLinesAcrossChunks() {
+        List<PlanBulkIngestService.BulkLine> lines = split(service(100).lineSplitter(), "{\"a\"", ":1}\n{\"b\":2}\n\n{", "}");
+
+        assertEquals(List.of(
+                new PlanBulkIngestService.BulkLine(1, "{\"a\":1}"),
+                new PlanBulkIngestService.BulkLine(2, "{\"b\":2}"),
+                new PlanBulkIngestService.BulkLine(3, ""),
+                new PlanBulkIngestService.BulkLine(4, "{}")), lines);
+    }
+
+    @Test
+    void trailingNewlineAddsNoLine() {
+        assertEquals(1, split(service(100).lineSplitter(), "{}\n").size());
+        assertEquals(0, split(service(100).lineSplitter()).size());
+    }
+
+    @Test
+    void keepsCharactersSplitBetweenChunks() {
+        byte[] bytes = "\"é\"\n".getBytes(StandardCharsets.UTF_8);
+        PlanBulkIngestService.LineSplitter splitter = service(100).lineSplitter();
+        // Split inside the two bytes of é
+        List<PlanBulkIngestService.BulkLine> lines = new ArrayList<>(splitter.split(bytes, 0, 2));
+        lines.addAll(splitter.split(bytes, 2, bytes.length - 2));
+
+        assertEquals(List.of(new PlanBulkIngestService.BulkLine(1, "\"é\"")), lines);
+    }
+
+    @Test
+    void limitCountsBytesNotCharacters() {
+        // Four characters but eight bytes
+        List<PlanBulkIngestService.BulkLine> lines = split(service(6).lineSplitter(), "éééé\néé\n", "abcdefg\nabc");
+
+        assertNull(lines.get(0).json());
+        assertEquals("éé", lines.get(1).json());
+        assertNull(lines.get(2).json());
+        assertEquals(new PlanBulkIngestService.BulkLine(4, "abc"), lines.get(3));
+    }
+
+    @Test
+    void oversizedLineIsDroppedAcrossChunks() {
+        List<PlanBulkIngestService.BulkLine> lines = split(service(4).lineSplitter(), "abc", "def", "ghi\n{}");
+
+        assertEquals(List.of(
+                new PlanBulkIngestService.BulkLine(1, null),
+                new PlanBulkIngestService.BulkLine(2, "{}")), lines);
+    }
+
+    @Test
+    void failedLinesGetOneResultEach() {
+        List<ObjectNode> results = service(100).ingest(List.of(
+                new PlanBulkIngestService.BulkLine(1, null),
+                new PlanBulkIngestService.BulkLine(2, "not json"),
+                new PlanBulkIngestService.BulkLine(3, "[1]"),
+                new PlanBulkIngestService.BulkLine(5, "{\"objectId\":\"x\"}")), "user");
+
+        assertEquals(4, results.size());
+        assertEquals(List.of(1L, 2L, 3L, 5L), results.stream().map(result -> result.get("line").asLong()).toList());
+        assertEquals(413, results.get(0).get("status").asInt());
+        assertEquals("PAYLOAD_TOO_LARGE", results.get(0).get("code").asText());
+        assertEquals("INVALID_PAYLOAD", results.get(1).get("code").asText());
+        assertEquals("INVALID_PAYLOAD", results.get(2).get("code").asText());
+        assertEquals(400, results.get(3).get("status").asInt());
+        assertEquals("VALIDATION_ERROR", results.get(3).get("code").asText());
+    }
+
+    @Test
+    void streamSkipsBlankLinesAndReportsOversizedOnes() throws Exception {
+        String upload = "\n" + "x".repeat(200) + "\n  \nnot json\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service(100).ingest(new ByteArrayInputStream(upload.getBytes(StandardCharsets.UTF_8)), out, "user");
+
+        String[] results = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, results.length);
+        assertEquals(2, objectMapper.readTree(results[0]).get("line").asInt());
+        assertEquals(413, objectMapper.readTree(results[0]).get("status").asInt());
+        assertEquals(4, objectMapper.readTree(results[1]).get("line").asInt());
+        assertEquals(400, objectMapper.readTree(results[1]).get("status").asInt());
+    }
+}
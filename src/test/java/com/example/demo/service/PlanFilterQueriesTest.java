@@ -0,0 +1,87 @@
+package com.example.demo.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.json.JsonpUtils;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.example.demo.model.PlanFilter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PlanFilterQueriesTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void equalFiltersShareTheBuiltQuery() {
+        Query first = PlanFilterQueries.compile(PlanIndexLayout.JOIN, new PlanFilter("example.com", null, null, null,
+                new PlanFilter.Range<>("2017-01-01", null, null, "2018-01-01"), null, null));
+        Query second = PlanFilterQueries.compile(PlanIndexLayout.JOIN, new PlanFilter("example.com", null, null, null,
+                new PlanFilter.Range<>("2017-01-01", null, null, "2018-01-01"), null,
+                new PlanFilter.Range<>(null, null, null, null)));
+
+        assertSame(first, second);
+        assertNotSame(first, PlanFilterQueries.compile(PlanIndexLayout.NESTED, new PlanFilter("example.com", null, null,
+                null, new PlanFilter.Range<>("2017-01-01", null, null, "2018-01-01"), null, null)));
+    }
+
+    @Test
+    void eachFilterGetsItsOwnValues() throws Exception {
+        PlanFilterQueries.compile(PlanIndexLayout.JOIN, new PlanFilter("example.com", "inNetwork", null, null, null, null, null));
+        JsonNode query = json(PlanFilterQueries.compile(PlanIndexLayout.JOIN,
+                new PlanFilter("other.com", "outOfNetwork", null, null, null, null, null)));
+
+        JsonNode filters = query.at("/bool/filter");
+        assertEquals(3, filters.size());
+        assertEquals("plan", filters.at("/0/term/plan_service_relation/value").asText());
+        assertEquals("other.com", filters.at("/1/match_phrase/_org/query").asText());
+        assertEquals("outOfNetwork", filters.at("/2/match_phrase/planType/query").asText());
+    }
+
+    @Test
+    void costShareBoundsApplyToTheSameCostShare() throws Exception {
+        JsonNode query = json(PlanFilterQueries.compile(PlanIndexLayout.JOIN, new PlanFilter(null, null, null, null, null,
+                new PlanFilter.Range<>(10, null, null, null), new PlanFilter.Range<>(null, null, 2000, null))));
+
+        JsonNode costShare = query.at("/bool/filter/1/bool");
+        assertEquals("1", costShare.path("minimum_should_match").asText());
+        JsonNode planCostShare = costShare.at("/should/0/has_child");
+        assertEquals("plancostShare", planCostShare.path("type").asText());
+        assertEquals(10, planCostShare.at("/query/bool/filter/0/range/copay/gte").asInt());
+        assertEquals(2000, planCostShare.at("/query/bool/filter/1/range/deductible/lte").asInt());
+        assertEquals("serviceCostShare", costShare.at("/should/1/has_child/query/has_child/type").asText());
+    }
+
+    @Test
+    void nestedLayoutQueriesWithinThePlanDocument() throws Exception {
+        JsonNode query = json(PlanFilterQueries.compile(PlanIndexLayout.NESTED, new PlanFilter(null, null, null,
+                "well baby", null, new PlanFilter.Range<>(10, null, null, null), null)));
+
+        JsonNode filters = query.at("/bool/filter");
+        assertEquals(2, filters.size());
+        assertEquals("linkedPlanServices", filters.at("/0/nested/path").asText());
+        assertEquals("well baby",
+                filters.at("/0/nested/query/match_phrase/linkedPlanServices.linkedService.name/query").asText());
+        JsonNode costShare = filters.at("/1/bool");
+        assertEquals(10, costShare.at("/should/0/bool/filter/0/range/planCostShares.copay/gte").asInt());
+        assertEquals(10, costShare.at(
+                "/should/1/nested/query/bool/filter/0/range/linkedPlanServices.planserviceCostShares.copay/gte").asInt());
+    }
+
+    @Test
+    void malformedDateIsRejected() {
+        PlanFilter filter = new PlanFilter(null, null, null, null,
+                new PlanFilter.Range<>("12/12/2017", null, null, null), null, null);
+
+        assertThrows(IllegalArgumentException.class, () -> PlanFilterQueries.compile(PlanIndexLayout.JOIN, filter));
+    }
+
+    private static JsonNode json(Query query) throws Exception {
+        return objectMapper.readTree(JsonpUtils.toJsonString(query, new JacksonJsonpMapper()));
+    }
+}
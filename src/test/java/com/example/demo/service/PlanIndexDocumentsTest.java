@@ -0,0 +1,103 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PlanIndexDocumentsTest {
+
+    // src/test/resources/plan.json, which PlanValidatorTest and the benchmarks start from as well
+    private static String planJson;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void loadPlan() throws Exception {
+        try (InputStream planStream = PlanIndexDocumentsTest.class.getResourceAsStream("/plan.json")) {
+            planJson = new String(planStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void newPlanUpsertsEveryDocument() throws Exception {
+        ObjectNode plan = (ObjectNode) objectMapper.readTree(planJson);
+        assertEquals(List.of(
+                        "upsert 12xvxc345ssdsds-508", "upsert 1234vxc2324sdf-501",
+                        "upsert 27283xvx9asdff-504", "upsert 1234520xvc30asdf-502", "upsert 1234512xvc1314asdf-501",
+                        "upsert 27283xvx9sdf-507", "upsert 1234520xvc30sfs-505", "upsert 1234512xvc1314sdfsd-506"),
+                actions(PlanIndexDocuments.changes(PlanIndexLayout.JOIN, "12xvxc345ssdsds-508", null, plan)));
+    }
+
+    @Test
+    void changedFieldUpsertsOnlyItsDocument() throws Exception {
+        ObjectNode before = (ObjectNode) objectMapper.readTree(planJson);
+        ObjectNode after = before.deepCopy();
+        ((ObjectNode) after.at("/linkedPlanServices/1/planserviceCostShares")).put("copay", 200);
+
+        ObjectNode changes = PlanIndexDocuments.changes(PlanIndexLayout.JOIN, "12xvxc345ssdsds-508", before, after);
+        assertEquals(List.of("upsert 1234512xvc1314sdfsd-506"), actions(changes));
+        JsonNode document = changes.at("/changes/0/document");
+        assertEquals(200, document.path("copay").asInt());
+        assertEquals("12xvxc345ssdsds-508", document.path("planId").asText());
+        assertEquals("27283xvx9sdf-507", document.at("/plan_service_relation/parent").asText());
+    }
+
+    @Test
+    void removedServiceDeletesItsDocuments() throws Exception {
+        ObjectNode before = (ObjectNode) objectMapper.readTree(planJson);
+        ObjectNode after = before.deepCopy();
+        ((ArrayNode) after.get("linkedPlanServices")).remove(0);
+
+        assertEquals(List.of("delete 27283xvx9asdff-504", "delete 1234520xvc30asdf-502", "delete 1234512xvc1314asdf-501"),
+                actions(PlanIndexDocuments.changes(PlanIndexLayout.JOIN, "12xvxc345ssdsds-508", before, after)));
+        assertEquals(List.of(),
+                actions(PlanIndexDocuments.changes(PlanIndexLayout.JOIN, "12xvxc345ssdsds-508", before, before.deepCopy())));
+    }
+
+    @Test
+    void changesNameTheOrgsBeforeAndAfter() throws Exception {
+        ObjectNode before = (ObjectNode) objectMapper.readTree(planJson);
+        ObjectNode after = before.deepCopy().put("_org", "other.com");
+
+        assertEquals("[\"example.com\",\"other.com\"]",
+                PlanIndexDocuments.changes(PlanIndexLayout.JOIN, "12xvxc345ssdsds-508", before, after).path("orgs").toString());
+        assertEquals("[\"example.com\"]",
+                PlanIndexDocuments.changes(PlanIndexLayout.JOIN, "12xvxc345ssdsds-508", before, null).path("orgs").toString());
+    }
+
+    @Test
+    void nestedLayoutChangesTheWholePlanDocument() throws Exception {
+        ObjectNode before = (ObjectNode) objectMapper.readTree(planJson);
+        ObjectNode after = before.deepCopy();
+        ((ObjectNode) after.at("/linkedPlanServices/1/planserviceCostShares")).put("copay", 200);
+
+        ObjectNode changes = PlanIndexDocuments.changes(PlanIndexLayout.NESTED, "12xvxc345ssdsds-508", before, after);
+        assertEquals("nested", changes.path("indexLayout").asText());
+        assertEquals(List.of("upsert 12xvxc345ssdsds-508"), actions(changes));
+        JsonNode document = changes.at("/changes/0/document");
+        assertEquals(23, document.at("/planCostShares/copay").asInt());
+        assertEquals("well baby", document.at("/linkedPlanServices/1/linkedService/name").asText());
+        assertEquals(200, document.at("/linkedPlanServices/1/planserviceCostShares/copay").asInt());
+        assertEquals(List.of("delete 12xvxc345ssdsds-508"),
+                actions(PlanIndexDocuments.changes(PlanIndexLayout.NESTED, "12xvxc345ssdsds-508", before, null)));
+    }
+
+    private static List<String> actions(ObjectNode changes) {
+        List<String> actions = new ArrayList<>();
+        for (JsonNode change : changes.path("changes")) {
+            assertEquals(changes.path("objectId").asText(), change.path("routing").asText());
+            actions.add(change.path("action").asText() + " " + change.path("id").asText());
+        }
+        return actions;
+    }
+}
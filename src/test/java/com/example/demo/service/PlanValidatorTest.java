@@ -0,0 +1,173 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.ValidationException;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// The compiled schema must report exactly what everit reports for the same document parsed
+// by org.json, message for message and in the same order
+class PlanValidatorTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static String planJson;
+    private static Schema everitSchema;
+    private static CompiledSchema compiledSchema;
+
+    @BeforeAll
+    static void loadFixtures() throws Exception {
+        try (InputStream planStream = PlanValidatorTest.class.getResourceAsStream("/plan.json")) {
+            planJson = new String(planStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try (InputStream schemaStream = PlanValidatorTest.class.getResourceAsStream("/plan-schema.json")) {
+            everitSchema = SchemaLoader.load(new JSONObject(new JSONTokener(schemaStream)));
+        }
+        compiledSchema = CompiledSchema.compile(everitSchema);
+    }
+
+    @Test
+    void acceptsValidPlan() throws Exception {
+        assertNull(compiledMessages(planJson));
+        assertNull(everitMessages(planJson));
+    }
+
+    @Test
+    void reportsEveryViolationThroughPlanValidator() throws Exception {
+        ObjectNode plan = (ObjectNode) objectMapper.readTree(planJson);
+        plan.remove("planType");
+        ((ObjectNode) plan.get("planCostShares")).put("copay", "free");
+        PlanValidationException e = assertThrows(PlanValidationException.class, () -> new PlanValidator().validate(plan));
+        assertEquals(List.of("#: required key [planType] not found",
+                "#/planCostShares/copay: expected type: Number, found: String"), e.getAllMessages());
+    }
+
+    @Test
+    void matchesEveritForEverySingleFieldChange() throws Exception {
+        ObjectNode plan = (ObjectNode) objectMapper.readTree(planJson);
+        List<Consumer<ObjectNode>> mutations = new ArrayList<>();
+        collectMutations(plan, new ArrayList<>(), mutations);
+
+        for (Consumer<ObjectNode> mutation : mutations) {
+            ObjectNode mutated = plan.deepCopy();
+            mutation.accept(mutated);
+            assertParity(objectMapper.writeValueAsString(mutated));
+        }
+    }
+
+    @Test
+    void matchesEveritForCombinedChanges() throws Exception {
+        ObjectNode plan = (ObjectNode) objectMapper.readTree(planJson);
+        List<Consumer<ObjectNode>> mutations = new ArrayList<>();
+        collectMutations(plan, new ArrayList<>(), mutations);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            ObjectNode mutated = plan.deepCopy();
+            int changes = 2 + random.nextInt(6);
+            for (int c = 0; c < changes; c++) {
+                try {
+                    mutations.get(random.nextInt(mutations.size())).accept(mutated);
+                } catch (RuntimeException e) {
+                    // An earlier change replaced the parent of this field
+                }
+            }
+            assertParity(objectMapper.writeValueAsString(mutated));
+        }
+    }
+
+    @Test
+    void matchesEveritForMalformedDates() throws Exception {
+        for (String date : List.of("12-12-2017", "2017-13-01", "2017-02-30", "2017-1-1", "", "2017-12-12T00:00")) {
+            ObjectNode plan = (ObjectNode) objectMapper.readTree(planJson);
+            plan.put("creationDate", date);
+            assertParity(objectMapper.writeValueAsString(plan));
+        }
+    }
+
+    // For every field of every object, one mutation removing it and one per replacement value
+    private static void collectMutations(JsonNode node, List<Object> path, List<Consumer<ObjectNode>> mutations) {
+        if (node.isObject()) {
+            Iterator<String> names = node.fieldNames();
+            while (names.hasNext()) {
+                String name = names.next();
+                mutations.add(root -> ((ObjectNode) at(root, path)).remove(name));
+                for (JsonNode replacement : replacements()) {
+                    mutations.add(root -> ((ObjectNode) at(root, path)).set(name, replacement.deepCopy()));
+                }
+                List<Object> fieldPath = new ArrayList<>(path);
+                fieldPath.add(name);
+                collectMutations(node.get(name), fieldPath, mutations);
+            }
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                int index = i;
+                for (JsonNode replacement : replacements()) {
+                    mutations.add(root -> ((ArrayNode) at(root, path)).set(index, replacement.deepCopy()));
+                }
+                List<Object> itemPath = new ArrayList<>(path);
+                itemPath.add(i);
+                collectMutations(node.get(i), itemPath, mutations);
+            }
+        }
+    }
+
+    private static List<JsonNode> replacements() {
+        ObjectNode object = objectMapper.createObjectNode().put("objectId", "x");
+        ArrayNode array = objectMapper.createArrayNode().add(1);
+        return List.of(
+                objectMapper.getNodeFactory().textNode("text"),
+                objectMapper.getNodeFactory().numberNode(5),
+                objectMapper.getNodeFactory().numberNode(1.5),
+                objectMapper.getNodeFactory().numberNode(10_000_000_000L),
+                objectMapper.getNodeFactory().numberNode(new BigInteger("100000000000000000000000")),
+                objectMapper.getNodeFactory().booleanNode(true),
+                objectMapper.getNodeFactory().nullNode(),
+                object,
+                array);
+    }
+
+    private static JsonNode at(JsonNode root, List<Object> path) {
+        JsonNode node = root;
+        for (Object step : path) {
+            node = step instanceof Integer index ? node.get(index) : node.get((String) step);
+        }
+        return node;
+    }
+
+    private static void assertParity(String json) throws Exception {
+        assertEquals(everitMessages(json), compiledMessages(json), json);
+    }
+
+    private static List<String> everitMessages(String json) {
+        try {
+            everitSchema.validate(new JSONObject(json));
+            return null;
+        } catch (ValidationException e) {
+            return e.getAllMessages();
+        }
+    }
+
+    private static List<String> compiledMessages(String json) throws Exception {
+        return compiledSchema.validate(objectMapper.readTree(json));
+    }
+}